@@ -0,0 +1,57 @@
+package com.devlomi.recordview;
+
+//ADTS framing of raw AAC-LC frames, each frame gets a small header and can be found and decoded on its own
+public final class Adts {
+    public static final int HEADER_SIZE = 7;
+    public static final int SAMPLES_PER_FRAME = 1024;
+    //ADTS sampling frequency indexes
+    private static final int[] SAMPLE_RATES = {
+            96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350
+    };
+
+    private Adts() {
+    }
+
+    // Returns -1 for rates ADTS can't describe
+    public static int sampleRateIndex(int sampleRate) {
+        for (int i = 0; i < SAMPLE_RATES.length; i++) {
+            if (SAMPLE_RATES[i] == sampleRate) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static void writeHeader(byte[] header, int sampleRateIndex, int channelCount, int frameSize) {
+        //AAC-LC is object type 2, ADTS stores it minus one
+        int profile = 1;
+        int frameLength = frameSize + HEADER_SIZE;
+        header[0] = (byte) 0xFF;
+        //MPEG-4, layer 0, no CRC
+        header[1] = (byte) 0xF1;
+        header[2] = (byte) ((profile << 6) | (sampleRateIndex << 2) | (channelCount >> 2));
+        header[3] = (byte) (((channelCount & 3) << 6) | (frameLength >> 11));
+        header[4] = (byte) ((frameLength >> 3) & 0xFF);
+        //buffer fullness 0x7FF means variable bitrate
+        header[5] = (byte) (((frameLength & 7) << 5) | 0x1F);
+        header[6] = (byte) 0xFC;
+    }
+
+    // Length of the frame at offset including its header, -1 if there is no complete frame there
+    public static int frameLength(byte[] data, int offset, int length) {
+        if (length - offset < HEADER_SIZE) {
+            return -1;
+        }
+        if ((data[offset] & 0xFF) != 0xFF || (data[offset + 1] & 0xF6) != 0xF0) {
+            return -1;
+        }
+
+        int frameLength = ((data[offset + 3] & 0x03) << 11)
+                | ((data[offset + 4] & 0xFF) << 3)
+                | ((data[offset + 5] & 0xE0) >> 5);
+        if (frameLength < HEADER_SIZE || frameLength > length - offset) {
+            return -1;
+        }
+        return frameLength;
+    }
+}
@@ -0,0 +1,149 @@
+package com.devlomi.recordview;
+
+import java.util.Arrays;
+
+/**
+ * Amplitude history of one recording, stored as primitive shorts.
+ * <p>
+ * The track never holds more than maxEntries values. When it is full, neighbouring entries are
+ * merged (keeping the louder one) and every later entry covers twice as many amplitudes, so memory
+ * stays constant however long the recording is.
+ * <p>
+ * One thread may add amplitudes while any number of threads read. Entries are never modified once
+ * readers can see them: growing or decimating copies them into a new {@link Buffer} that is then
+ * published, so readers always get a consistent snapshot without locking.
+ */
+public class AmplitudeTrack {
+    public static final int DEFAULT_MAX_ENTRIES = 4096;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final class Buffer {
+        final short[] entries;
+        //amplitudes merged into every entry
+        final int amplitudesPerEntry;
+        volatile int size;
+
+        Buffer(short[] entries, int size, int amplitudesPerEntry) {
+            this.entries = entries;
+            this.size = size;
+            this.amplitudesPerEntry = amplitudesPerEntry;
+        }
+    }
+
+    private final int maxEntries;
+    private volatile Buffer buffer;
+    //amplitudes not yet merged into an entry, writer only
+    private int pendingPeak = 0;
+    private int pendingCount = 0;
+
+    public AmplitudeTrack() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public AmplitudeTrack(int maxEntries) {
+        if (maxEntries < 2 || maxEntries % 2 != 0) {
+            throw new IllegalArgumentException("maxEntries must be even and at least 2: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        buffer = new Buffer(new short[Math.min(INITIAL_CAPACITY, maxEntries)], 0, 1);
+    }
+
+    // Writer only, amplitudes are clamped to 0..Short.MAX_VALUE
+    public void add(int amplitude) {
+        int value = Math.max(0, Math.min(amplitude, Short.MAX_VALUE));
+        if (value > pendingPeak) {
+            pendingPeak = value;
+        }
+
+        Buffer current = buffer;
+        if (pendingCount == 0 && current.size == maxEntries) {
+            //merge before the next entry starts, so it collects as many amplitudes as the merged ones cover
+            current = decimate(current);
+            buffer = current;
+        }
+        if (++pendingCount < current.amplitudesPerEntry) {
+            return;
+        }
+
+        append(current, (short) pendingPeak);
+        pendingPeak = 0;
+        pendingCount = 0;
+    }
+
+    private void append(Buffer current, short value) {
+        int size = current.size;
+
+        if (size == current.entries.length) {
+            current = grow(current);
+            buffer = current;
+        }
+
+        current.entries[size] = value;
+        //publishes the entry written above
+        current.size = size + 1;
+    }
+
+    private Buffer grow(Buffer current) {
+        short[] entries = Arrays.copyOf(current.entries, Math.min(current.entries.length * 2, maxEntries));
+        return new Buffer(entries, current.size, current.amplitudesPerEntry);
+    }
+
+    private Buffer decimate(Buffer current) {
+        short[] entries = new short[maxEntries];
+        int half = current.size / 2;
+        for (int i = 0; i < half; i++) {
+            entries[i] = (short) Math.max(current.entries[2 * i], current.entries[2 * i + 1]);
+        }
+        return new Buffer(entries, half, current.amplitudesPerEntry * 2);
+    }
+
+    // Number of entries, at most maxEntries
+    public int size() {
+        return buffer.size;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    // How many added amplitudes every entry stands for, doubles each time the track is decimated
+    public int getAmplitudesPerEntry() {
+        return buffer.amplitudesPerEntry;
+    }
+
+    // Consistent copy of all entries, oldest first
+    public short[] toArray() {
+        Buffer current = buffer;
+        return Arrays.copyOf(current.entries, current.size);
+    }
+
+    /**
+     * Consistent copy squeezed into at most count entries, each the peak of the entries it covers,
+     * e.g. to show a whole recording in a view of count bars.
+     */
+    public short[] toArray(int count) {
+        short[] entries = toArray();
+        if (entries.length <= count) {
+            return entries;
+        }
+
+        short[] squeezed = new short[count];
+        for (int i = 0; i < count; i++) {
+            int from = (int) ((long) i * entries.length / count);
+            int to = (int) ((long) (i + 1) * entries.length / count);
+            short peak = 0;
+            for (int j = from; j < to; j++) {
+                peak = (short) Math.max(peak, entries[j]);
+            }
+            squeezed[i] = peak;
+        }
+        return squeezed;
+    }
+
+    // Writer only, starts over as an empty track
+    public void clear() {
+        buffer = new Buffer(new short[Math.min(INITIAL_CAPACITY, maxEntries)], 0, 1);
+        pendingPeak = 0;
+        pendingCount = 0;
+    }
+}
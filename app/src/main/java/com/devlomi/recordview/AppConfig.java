@@ -1,7 +0,0 @@
-package com.devlomi.recordview;
-
-import java.util.ArrayList;
-
-public class AppConfig {
-    public static ArrayList<Integer> amplitudeArrayList = new ArrayList<Integer>();
-}
@@ -0,0 +1,65 @@
+package com.devlomi.recordview;
+
+import java.util.zip.CRC32;
+
+/**
+ * A piece of a recording that is uploaded on its own.
+ * <p>
+ * The data is a run of whole ADTS frames, so every chunk can be decoded by itself and the
+ * recording is simply the chunks concatenated in sequence order. The CRC32 covers the data only.
+ */
+public final class AudioChunk {
+    private final String uploadId;
+    private final int sequence;
+    private final long startTimeUs;
+    private final long durationUs;
+    private final byte[] data;
+    private final long crc32;
+    private final boolean last;
+
+    public AudioChunk(String uploadId, int sequence, long startTimeUs, long durationUs, byte[] data, boolean last) {
+        this.uploadId = uploadId;
+        this.sequence = sequence;
+        this.startTimeUs = startTimeUs;
+        this.durationUs = durationUs;
+        this.data = data;
+        this.crc32 = crc32(data);
+        this.last = last;
+    }
+
+    public static long crc32(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    // Starts at 0 for every upload and has no gaps
+    public int getSequence() {
+        return sequence;
+    }
+
+    public long getStartTimeUs() {
+        return startTimeUs;
+    }
+
+    public long getDurationUs() {
+        return durationUs;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public long getCrc32() {
+        return crc32;
+    }
+
+    // The final chunk of the recording, it may be empty
+    public boolean isLast() {
+        return last;
+    }
+}
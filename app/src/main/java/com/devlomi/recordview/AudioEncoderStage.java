@@ -0,0 +1,281 @@
+package com.devlomi.recordview;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Encodes PCM frames to AAC-LC incrementally and muxes them into an .m4a file.
+ * Presentation times are derived from the number of samples fed, so paused periods
+ * (which never reach this sink) do not leave holes in the timeline.
+ */
+public class AudioEncoderStage implements PcmSink {
+    private static final String TAG = "AudioEncoderStage";
+    private static final long CODEC_TIMEOUT_US = 10_000;
+
+    public enum Profile {
+        SPEECH_LOW(24_000),
+        SPEECH_MEDIUM(32_000),
+        SPEECH_HIGH(64_000);
+
+        private final int bitRate;
+
+        Profile(int bitRate) {
+            this.bitRate = bitRate;
+        }
+
+        public int getBitRate() {
+            return bitRate;
+        }
+    }
+
+    private final File file;
+    private final Profile profile;
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+    private MediaCodec codec;
+    private MediaMuxer muxer;
+    private int trackIndex = -1;
+    private boolean muxerStarted = false;
+    private int sampleRate;
+    private int channelCount;
+    private long samplesQueued = 0;
+    private long encodedBytes = 0;
+    //time spent feeding and draining the codec, for throughput metrics
+    private long busyNanos = 0;
+    private final List<EncodedFrameSink> encodedFrameSinks = new ArrayList<>();
+
+    public AudioEncoderStage(File file, Profile profile) {
+        this.file = file;
+        this.profile = profile;
+    }
+
+    // Also hands every encoded frame to the given sink, e.g. to upload or journal it while recording. Add before onStart
+    public void addEncodedFrameSink(EncodedFrameSink encodedFrameSink) {
+        encodedFrameSinks.add(encodedFrameSink);
+    }
+
+    @Override
+    public void onStart(int sampleRate, int channelCount) throws IOException {
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        samplesQueued = 0;
+        encodedBytes = 0;
+        busyNanos = 0;
+        trackIndex = -1;
+        muxerStarted = false;
+
+        MediaFormat format = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC, sampleRate, channelCount);
+        format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, profile.getBitRate());
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, AudioRecorder.FRAME_SIZE * 2 * channelCount);
+
+        try {
+            codec = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC);
+            codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            codec.start();
+            muxer = new MediaMuxer(file.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        } catch (IOException | IllegalStateException e) {
+            release();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+
+        Iterator<EncodedFrameSink> iterator = encodedFrameSinks.iterator();
+        while (iterator.hasNext()) {
+            try {
+                iterator.next().onStart(sampleRate, channelCount);
+            } catch (IOException e) {
+                //the file is what matters, keep recording without the extra sink
+                Log.e(TAG, "Encoded frame sink failed to start, removing it: " + e.getMessage());
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public void onPcm(short[] buffer, int length) throws IOException {
+        long startNanos = System.nanoTime();
+        int offset = 0;
+        while (offset < length) {
+            int inputIndex = codec.dequeueInputBuffer(CODEC_TIMEOUT_US);
+            if (inputIndex < 0) {
+                //encoder is full, make room by draining what it already produced
+                drain(false);
+                continue;
+            }
+
+            ByteBuffer input = codec.getInputBuffer(inputIndex);
+            input.clear();
+            input.order(ByteOrder.LITTLE_ENDIAN);
+
+            int count = Math.min(length - offset, input.remaining() / 2);
+            for (int i = 0; i < count; i++) {
+                input.putShort(buffer[offset + i]);
+            }
+
+            codec.queueInputBuffer(inputIndex, 0, count * 2, presentationTimeUs(), 0);
+            samplesQueued += count;
+            offset += count;
+        }
+
+        drain(false);
+        busyNanos += System.nanoTime() - startNanos;
+    }
+
+    @Override
+    public void onStop() throws IOException {
+        if (codec == null) {
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+        IOException failure = null;
+        try {
+            int inputIndex;
+            do {
+                inputIndex = codec.dequeueInputBuffer(CODEC_TIMEOUT_US);
+                if (inputIndex < 0) {
+                    drain(false);
+                }
+            } while (inputIndex < 0);
+
+            codec.queueInputBuffer(inputIndex, 0, 0, presentationTimeUs(), MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            drain(true);
+        } catch (IOException e) {
+            failure = e;
+        } catch (IllegalStateException e) {
+            failure = new IOException(e);
+        } finally {
+            IOException finalizeFailure = release();
+            if (failure == null) {
+                failure = finalizeFailure;
+            }
+            busyNanos += System.nanoTime() - startNanos;
+            stopEncodedFrameSinks();
+        }
+
+        //without the moov box written by muxer.stop() the file does not play
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void stopEncodedFrameSinks() {
+        for (EncodedFrameSink sink : encodedFrameSinks) {
+            try {
+                sink.onStop();
+            } catch (IOException e) {
+                Log.e(TAG, "Encoded frame sink failed to stop: " + e.getMessage());
+            }
+        }
+    }
+
+    private void drain(boolean untilEndOfStream) throws IOException {
+        while (true) {
+            int outputIndex = codec.dequeueOutputBuffer(bufferInfo, CODEC_TIMEOUT_US);
+
+            if (outputIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                if (!untilEndOfStream) {
+                    return;
+                }
+            } else if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                if (muxerStarted) {
+                    throw new IOException("Encoder output format changed twice");
+                }
+                trackIndex = muxer.addTrack(codec.getOutputFormat());
+                muxer.start();
+                muxerStarted = true;
+            } else if (outputIndex >= 0) {
+                ByteBuffer output = codec.getOutputBuffer(outputIndex);
+
+                //codec specific data is already part of the output format given to the muxer
+                boolean isConfig = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+                if (!isConfig && bufferInfo.size > 0 && muxerStarted) {
+                    output.position(bufferInfo.offset);
+                    output.limit(bufferInfo.offset + bufferInfo.size);
+                    muxer.writeSampleData(trackIndex, output, bufferInfo);
+                    encodedBytes += bufferInfo.size;
+                    writeEncodedFrame(output);
+                }
+
+                codec.releaseOutputBuffer(outputIndex, false);
+
+                if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void writeEncodedFrame(ByteBuffer output) {
+        //indexed loop, no iterator per frame
+        for (int i = encodedFrameSinks.size() - 1; i >= 0; i--) {
+            output.position(bufferInfo.offset);
+            output.limit(bufferInfo.offset + bufferInfo.size);
+            try {
+                encodedFrameSinks.get(i).onFrame(output, bufferInfo.presentationTimeUs);
+            } catch (IOException e) {
+                Log.e(TAG, "Encoded frame sink failed, removing it: " + e.getMessage());
+                encodedFrameSinks.remove(i);
+            }
+        }
+    }
+
+    private long presentationTimeUs() {
+        return samplesQueued / channelCount * 1_000_000L / sampleRate;
+    }
+
+    // Returns why the file could not be finalized, null if it was or there was nothing to finalize
+    private IOException release() {
+        IOException failure = null;
+        if (codec != null) {
+            try {
+                codec.stop();
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Failed to stop encoder: " + e.getMessage());
+            }
+            codec.release();
+            codec = null;
+        }
+
+        if (muxer != null) {
+            try {
+                if (muxerStarted) {
+                    muxer.stop();
+                }
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Failed to finalize " + file.getName() + ": " + e.getMessage());
+                failure = new IOException("Failed to finalize " + file.getName(), e);
+            }
+            muxer.release();
+            muxer = null;
+            muxerStarted = false;
+        }
+        return failure;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public Profile getProfile() {
+        return profile;
+    }
+
+    public long getEncodedBytes() {
+        return encodedBytes;
+    }
+
+    public long getBusyNanos() {
+        return busyNanos;
+    }
+}
@@ -0,0 +1,37 @@
+package com.devlomi.recordview;
+
+public class AudioMetadata {
+    private final long durationMs;
+    private final int sampleRate;
+    private final int channelCount;
+    private final long sizeBytes;
+
+    public AudioMetadata(long durationMs, int sampleRate, int channelCount, long sizeBytes) {
+        this.durationMs = durationMs;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.sizeBytes = sizeBytes;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "AudioMetadata{durationMs=" + durationMs + ", sampleRate=" + sampleRate
+                + ", channelCount=" + channelCount + ", sizeBytes=" + sizeBytes + "}";
+    }
+}
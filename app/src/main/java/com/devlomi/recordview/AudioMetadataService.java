@@ -0,0 +1,142 @@
+package com.devlomi.recordview;
+
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Duration, sample rate, channel count and size of audio files, cached per file.
+ * <p>
+ * Our own recordings are registered with {@link #put(File, AudioMetadata)} straight from the
+ * recorder's frame count so they are never probed. Other files are probed with
+ * {@link MediaExtractor} (container headers only, no decoder) on a background thread.
+ * <p>
+ * Files are keyed by path and the last modified time the caller already knows, e.g. from the
+ * {@link Message}, so nothing here stats the file on the main thread.
+ */
+public class AudioMetadataService {
+    private static final String TAG = "AudioMetadataService";
+    private static final int MAX_ENTRIES = 256;
+
+    public interface Callback {
+        void onMetadataReady(File audioFile, AudioMetadata metadata);
+    }
+
+    private final LruCache<String, AudioMetadata> cache = new LruCache<>(MAX_ENTRIES);
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "AudioMetadataService");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    //main thread only: callbacks waiting for a probe already queued, and files that can't be probed
+    private final Map<String, List<Callback>> pending = new HashMap<>();
+    private final Set<String> failed = new HashSet<>();
+
+    public void put(File audioFile, long modifiedAt, AudioMetadata metadata) {
+        cache.put(cacheKey(audioFile, modifiedAt), metadata);
+    }
+
+    // Returns the cached metadata or null, never touches the file
+    public AudioMetadata get(File audioFile, long modifiedAt) {
+        return cache.get(cacheKey(audioFile, modifiedAt));
+    }
+
+    // Main thread only, the callback is not called if the file can't be probed
+    public void probe(File audioFile, long modifiedAt, Callback callback) {
+        String key = cacheKey(audioFile, modifiedAt);
+        AudioMetadata cached = cache.get(key);
+        if (cached != null) {
+            callback.onMetadataReady(audioFile, cached);
+            return;
+        }
+        if (failed.contains(key)) {
+            return;
+        }
+
+        List<Callback> callbacks = pending.get(key);
+        if (callbacks != null) {
+            callbacks.add(callback);
+            return;
+        }
+        callbacks = new ArrayList<>();
+        callbacks.add(callback);
+        pending.put(key, callbacks);
+
+        executor.execute(() -> {
+            AudioMetadata metadata = null;
+            try {
+                metadata = probeBlocking(audioFile);
+            } catch (IOException | IllegalArgumentException e) {
+                Log.e(TAG, "Failed to probe " + audioFile.getName() + ": " + e.getMessage());
+            }
+
+            final AudioMetadata result = metadata;
+            mainHandler.post(() -> {
+                List<Callback> waiting = pending.remove(key);
+                if (result == null) {
+                    failed.add(key);
+                    return;
+                }
+                cache.put(key, result);
+                if (waiting != null) {
+                    for (Callback waitingCallback : waiting) {
+                        waitingCallback.onMetadataReady(audioFile, result);
+                    }
+                }
+            });
+        });
+    }
+
+    public void release() {
+        executor.shutdownNow();
+        mainHandler.removeCallbacksAndMessages(null);
+        pending.clear();
+        failed.clear();
+    }
+
+    private static AudioMetadata probeBlocking(File audioFile) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(audioFile.getPath());
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat format = extractor.getTrackFormat(i);
+                String mime = format.getString(MediaFormat.KEY_MIME);
+                if (mime == null || !mime.startsWith("audio/")) {
+                    continue;
+                }
+
+                long durationUs = format.containsKey(MediaFormat.KEY_DURATION) ? format.getLong(MediaFormat.KEY_DURATION) : 0;
+                return new AudioMetadata(durationUs / 1000,
+                        format.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                        format.getInteger(MediaFormat.KEY_CHANNEL_COUNT),
+                        audioFile.length());
+            }
+            throw new IOException("No audio track");
+        } finally {
+            extractor.release();
+        }
+    }
+
+    private static String cacheKey(File audioFile, long modifiedAt) {
+        return audioFile.getPath() + ":" + modifiedAt;
+    }
+}
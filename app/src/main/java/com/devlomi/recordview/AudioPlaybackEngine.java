@@ -0,0 +1,129 @@
+package com.devlomi.recordview;
+
+import android.media.MediaPlayer;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Plays voice messages through a single shared {@link MediaPlayer}.
+ * <p>
+ * Rows of the message list don't own a player, they borrow this one when the user hits play.
+ * The player is prepared asynchronously, reused (reset) between files, and whoever was playing
+ * before is told to stop when another row starts. Must be used from the main thread.
+ */
+public class AudioPlaybackEngine {
+    private static final String TAG = "AudioPlaybackEngine";
+
+    public interface Listener {
+        void onPlaybackStarted();
+
+        void onPlaybackPaused();
+
+        // Called on completion, on error, or when another listener took over the player
+        void onPlaybackStopped();
+    }
+
+    private MediaPlayer player;
+    private File currentFile;
+    private Listener owner;
+    private boolean isPrepared = false;
+    private boolean isPaused = false;
+
+    public void play(File audioFile, Listener listener) throws IOException {
+        if (owner == listener && audioFile.equals(currentFile) && isPrepared && isPaused) {
+            player.start();
+            isPaused = false;
+            listener.onPlaybackStarted();
+            return;
+        }
+
+        stopCurrent();
+
+        if (player == null) {
+            player = new MediaPlayer();
+        }
+
+        owner = listener;
+        currentFile = audioFile;
+
+        try {
+            player.setDataSource(audioFile.getPath());
+        } catch (IOException e) {
+            player.reset();
+            clearOwner();
+            throw e;
+        }
+
+        player.setOnPreparedListener(mp -> {
+            if (owner != listener) {
+                return;
+            }
+            isPrepared = true;
+            mp.start();
+            listener.onPlaybackStarted();
+        });
+        player.setOnCompletionListener(mp -> stop(listener));
+        player.setOnErrorListener((mp, what, extra) -> {
+            Log.e(TAG, "Playback error " + what + "/" + extra + " for " + audioFile.getName());
+            stop(listener);
+            return true;
+        });
+        player.prepareAsync();
+    }
+
+    public void pause(Listener listener) {
+        if (owner == listener && isPrepared && player.isPlaying()) {
+            player.pause();
+            isPaused = true;
+            listener.onPlaybackPaused();
+        }
+    }
+
+    // Stops playback if it belongs to this listener, e.g. when its row gets recycled
+    public void stop(Listener listener) {
+        if (owner == listener) {
+            stopCurrent();
+        }
+    }
+
+    public boolean isPlaying(Listener listener) {
+        return owner == listener && isPrepared && !isPaused;
+    }
+
+    public int getCurrentPosition(Listener listener) {
+        return owner == listener && isPrepared ? player.getCurrentPosition() : 0;
+    }
+
+    public int getDuration(Listener listener) {
+        return owner == listener && isPrepared ? player.getDuration() : 0;
+    }
+
+    public void release() {
+        stopCurrent();
+        if (player != null) {
+            player.release();
+            player = null;
+        }
+    }
+
+    private void stopCurrent() {
+        if (owner == null) {
+            return;
+        }
+
+        Listener previousOwner = owner;
+        //reset() stops playback or aborts a pending prepareAsync and keeps the player reusable
+        player.reset();
+        clearOwner();
+        previousOwner.onPlaybackStopped();
+    }
+
+    private void clearOwner() {
+        owner = null;
+        currentFile = null;
+        isPrepared = false;
+        isPaused = false;
+    }
+}
@@ -1,93 +1,621 @@
 package com.devlomi.recordview;
 
+import android.media.AudioFormat;
+import android.media.AudioRecord;
 import android.media.MediaRecorder;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 public class AudioRecorder {
-    private MediaRecorder mediaRecorder;
+    private static final String TAG = "AudioRecorder";
+
+    public static final int SAMPLE_RATE = 16000;
+    public static final int CHANNEL_COUNT = 1;
+    //20ms of mono audio per frame
+    public static final int FRAME_SIZE = SAMPLE_RATE / 50;
+
+    private static final int CHANNEL_CONFIG = AudioFormat.CHANNEL_IN_MONO;
+    private static final int AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
+    //~2.5 seconds of audio can be queued before a slow sink makes us drop frames
+    private static final int RING_CAPACITY = 128;
+    private static final long DISPATCH_PARK_NANOS = 5_000_000L;
+    //while warm the last 500ms are kept, so a recording can start before start() was called
+    private static final int PREROLL_FRAMES = 25;
+    //peaks waiting for the UI, ~1.3 seconds worth of frames
+    private static final int PEAK_RING_CAPACITY = 64;
+    //how far before start() the pre-roll is kept, covers the time from the touch to the start() call
+    private static final long PREROLL_LEAD_NANOS = 100_000_000L;
+
+    private AudioRecord audioRecord;
+    private Thread captureThread;
+    private Thread dispatchThread;
+    private final List<PcmSink> sinks = new CopyOnWriteArrayList<>();
+    //sinks that threw while recording, they get no more pcm but are still stopped
+    private final List<PcmSink> failedSinks = new CopyOnWriteArrayList<>();
+    private PcmSink fileSink;
+    private SilenceTrimmer silenceTrimmer;
+    //0 keeps silence as it was recorded
+    private int maxSilenceMs = 0;
+    private final WaveformSummary waveformSummary = new WaveformSummary();
+    private AudioEncoderStage.Profile profile = AudioEncoderStage.Profile.SPEECH_MEDIUM;
+    private EncodedFrameSink encodedFrameSink;
+    private RecordingJournal journal;
+    private final PcmRingBuffer ringBuffer = new PcmRingBuffer(RING_CAPACITY, FRAME_SIZE);
+    private final short[] captureBuffer = new short[FRAME_SIZE];
+    private final short[] dispatchBuffer = new short[FRAME_SIZE];
+    private final AtomicInteger maxAmplitude = new AtomicInteger();
+    //one peak per captured frame, written by the capture thread and read by the UI thread,
+    //each as {recording number, peak} so peaks left over from the last recording can be skipped
+    private final PcmRingBuffer peakRing = new PcmRingBuffer(PEAK_RING_CAPACITY, 2);
+    private final short[] capturePeak = new short[2];
+    private final short[] readerPeak = new short[2];
+    //bumped by start() before anything is captured, only its low 16 bits are stored with the peaks
+    private volatile int recordingNumber = 0;
+    //pre-roll ring, only touched by the capture thread
+    private final short[][] prerollFrames = new short[PREROLL_FRAMES][FRAME_SIZE];
+    private final int[] prerollLengths = new int[PREROLL_FRAMES];
+    private final long[] prerollTimes = new long[PREROLL_FRAMES];
+    private int prerollHead = 0;
+    private int prerollCount = 0;
     private String filePath;
-    private boolean isRecording = false;
-    private boolean isPaused = false;
+    private volatile boolean isRecording = false;
+    private volatile boolean isPaused = false;
+    //cleared once the capture thread is gone for good, the dispatcher exits after draining the ring
+    private volatile boolean isDispatching = false;
+    //the microphone is open and feeding the pre-roll, but nothing is being recorded yet
+    private volatile boolean isWarm = false;
+    //pre-roll frames captured before this moment are not part of the recording
+    private volatile long recordStartNanos = 0;
+    private volatile long recordedSamples = 0;
     private long pausedTime = 0;
+    private final RecordingMetrics metrics = new RecordingMetrics();
+    private RecordingMetrics.Listener metricsListener;
+    private long warmSinceNanos = 0;
+    private long overrunsAtStart = 0;
+    private long underrunsAtStart = 0;
+    //only written by the dispatch thread, read after it was joined
+    private long failedSinkCount = 0;
+    //why the file of the last recording is incomplete, null if it is not
+    private volatile IOException fileFailure;
+
+    // Initialize AudioRecord
+    private void initAudioRecord() throws IOException {
+        int minBufferSize = AudioRecord.getMinBufferSize(SAMPLE_RATE, CHANNEL_CONFIG, AUDIO_FORMAT);
+        if (minBufferSize <= 0) {
+            throw new IOException("Unsupported recording format, getMinBufferSize returned " + minBufferSize);
+        }
+
+        //leave room for a few frames so a late read does not overflow the native buffer
+        int bufferSize = Math.max(minBufferSize * 2, FRAME_SIZE * 2 * 4);
+        audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, SAMPLE_RATE, CHANNEL_CONFIG, AUDIO_FORMAT, bufferSize);
+
+        if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+            destroyAudioRecord();
+            throw new IOException("AudioRecord could not be initialized");
+        }
+    }
+
+    // Add a sink that will receive every captured frame, sinks are called on the dispatch thread
+    public void addSink(PcmSink sink) {
+        sinks.add(sink);
+    }
+
+    public void removeSink(PcmSink sink) {
+        sinks.remove(sink);
+    }
+
+    // Encoder profile used for the output file, null writes uncompressed WAV instead
+    public void setProfile(AudioEncoderStage.Profile profile) {
+        this.profile = profile;
+    }
+
+    public AudioEncoderStage.Profile getProfile() {
+        return profile;
+    }
+
+    // Trim leading and trailing silence and shorten pauses longer than maxSilenceMs, 0 disables it.
+    // Takes effect with the next start()
+    public void setSilenceTrimming(int maxSilenceMs) {
+        this.maxSilenceMs = Math.max(0, maxSilenceMs);
+    }
+
+    public int getSilenceTrimming() {
+        return maxSilenceMs;
+    }
 
-    // Initialize MediaRecorder
-    private void initMediaRecorder() {
-        mediaRecorder = new MediaRecorder();
-        mediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
-        mediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.THREE_GPP);
-        mediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AMR_NB);
+    // Receives the encoded frames of the next start() only, e.g. a StreamingUploadSink.
+    // Ignored when recording to WAV
+    public void setEncodedFrameSink(EncodedFrameSink encodedFrameSink) {
+        this.encodedFrameSink = encodedFrameSink;
+    }
+
+    // Journals every AAC recording so it can be recovered if the process dies, null disables it.
+    // The owner commits or discards each recording once it is done with it
+    public void setJournal(RecordingJournal journal) {
+        this.journal = journal;
+    }
+
+    public RecordingJournal getJournal() {
+        return journal;
+    }
+
+    // Open the microphone ahead of time, e.g. when the record button becomes visible.
+    // The next start() then begins without any setup and includes the audio since the touch
+    public void prewarm() throws IOException {
+        if (isRecording || isWarm) {
+            return;
+        }
+
+        initAudioRecord();
+        try {
+            audioRecord.startRecording();
+        } catch (IllegalStateException e) {
+            destroyAudioRecord();
+            throw new IOException(e);
+        }
+
+        isPaused = false;
+        isWarm = true;
+        warmSinceNanos = System.nanoTime();
+        startCaptureThread();
+    }
+
+    // Release a microphone opened by prewarm() that did not turn into a recording
+    public void cooldown() {
+        if (!isWarm || isRecording) {
+            return;
+        }
+
+        isWarm = false;
+        stopAudioRecord();
+        joinThread(captureThread);
+        captureThread = null;
+        destroyAudioRecord();
     }
 
     // Start the recording
     public void start(String filePath) throws IOException {
-        if (mediaRecorder == null) {
-            initMediaRecorder();
+        if (isRecording) {
+            stop();
         }
 
+        long requestedAt = System.nanoTime();
+        metrics.mark(RecordingMetrics.Phase.START_REQUESTED, requestedAt);
+        metrics.setWarm(isWarm);
+        overrunsAtStart = ringBuffer.getOverrunCount();
+        underrunsAtStart = ringBuffer.getUnderrunCount();
+        failedSinkCount = 0;
+        failedSinks.clear();
+        fileFailure = null;
+
         this.filePath = filePath;
-        mediaRecorder.setOutputFile(filePath);
-        mediaRecorder.prepare();
-        mediaRecorder.start();
-        isRecording = true;
-        isPaused = false;
+        fileSink = createFileSink(new File(filePath));
+        if (maxSilenceMs > 0) {
+            //the waveform goes through the trimmer too, so it matches the file
+            silenceTrimmer = new SilenceTrimmer(FRAME_SIZE, maxSilenceMs, fileSink, waveformSummary);
+            sinks.add(0, silenceTrimmer);
+        } else {
+            silenceTrimmer = null;
+            sinks.add(0, fileSink);
+            sinks.add(waveformSummary);
+        }
+
+        maxAmplitude.set(0);
+        recordingNumber++;
+        recordedSamples = 0;
+        recordStartNanos = requestedAt - PREROLL_LEAD_NANOS;
+
+        try {
+            if (!isWarm) {
+                initAudioRecord();
+                audioRecord.startRecording();
+                isPaused = false;
+                metrics.mark(RecordingMetrics.Phase.CAPTURE_STARTED);
+            } else {
+                metrics.mark(RecordingMetrics.Phase.CAPTURE_STARTED, warmSinceNanos);
+            }
+
+            //capture goes to the ring right away, the sinks below can take a while to set up
+            isRecording = true;
+            isWarm = false;
+            if (captureThread == null) {
+                startCaptureThread();
+            }
+
+            for (PcmSink sink : sinks) {
+                sink.onStart(SAMPLE_RATE, CHANNEL_COUNT);
+            }
+            metrics.mark(RecordingMetrics.Phase.SINKS_READY);
+        } catch (IOException | IllegalStateException e) {
+            abortStart();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+
+        isDispatching = true;
+        dispatchThread = new Thread(this::dispatchLoop, "AudioRecorder-dispatch");
+        dispatchThread.start();
     }
 
-    // Stop the recording
-    public void stop() {
+    private void abortStart() {
+        isRecording = false;
+        isWarm = false;
+        if (audioRecord != null) {
+            stopAudioRecord();
+        }
+        joinThread(captureThread);
+        captureThread = null;
+
+        //nobody is dispatching yet, drop what was captured
+        while (!ringBuffer.isEmpty()) {
+            ringBuffer.poll(dispatchBuffer);
+        }
+
+        removeRecordingSinks();
+        destroyAudioRecord();
+        metrics.reset();
+    }
+
+    //the trimmer passes on the failures of the file sink behind it
+    private boolean isFileSink(PcmSink sink) {
+        return sink == fileSink || (sink != null && sink == silenceTrimmer);
+    }
+
+    private void stopSink(PcmSink sink) {
         try {
-            if (mediaRecorder != null && isRecording) {
-                mediaRecorder.stop();
-                destroyMediaRecorder();
-                isRecording = false;
+            sink.onStop();
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Failed to stop sink: " + e.getMessage());
+            if (isFileSink(sink) && fileFailure == null) {
+                fileFailure = e instanceof IOException ? (IOException) e : new IOException(e);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
     }
 
-    // Pause the recording
+    private void removeRecordingSinks() {
+        if (silenceTrimmer != null) {
+            sinks.remove(silenceTrimmer);
+        }
+        sinks.remove(fileSink);
+        sinks.remove(waveformSummary);
+        fileSink = null;
+    }
+
+    private PcmSink createFileSink(File file) {
+        EncodedFrameSink encodedSink = encodedFrameSink;
+        encodedFrameSink = null;
+        if (profile == null) {
+            if (encodedSink != null) {
+                Log.w(TAG, "Recording to WAV, encoded frame sink ignored");
+            }
+            return new WavFileSink(file);
+        }
+
+        AudioEncoderStage encoder = new AudioEncoderStage(file, profile);
+        if (journal != null) {
+            encoder.addEncodedFrameSink(journal.begin(file));
+        }
+        if (encodedSink != null) {
+            encoder.addEncodedFrameSink(encodedSink);
+        }
+        return encoder;
+    }
+
+    private void startCaptureThread() {
+        captureThread = new Thread(this::captureLoop, "AudioRecorder-capture");
+        captureThread.start();
+    }
+
+    // Stop the recording
+    public void stop() {
+        if (audioRecord == null || !isRecording) {
+            return;
+        }
+
+        metrics.mark(RecordingMetrics.Phase.STOP_REQUESTED);
+        isRecording = false;
+        if (!isPaused) {
+            stopAudioRecord();
+        }
+        isPaused = false;
+
+        joinThread(captureThread);
+        captureThread = null;
+        //the dispatcher drains whatever is left in the ring before it exits
+        isDispatching = false;
+        LockSupport.unpark(dispatchThread);
+        joinThread(dispatchThread);
+        dispatchThread = null;
+
+        for (PcmSink sink : sinks) {
+            stopSink(sink);
+        }
+        //a failed encoder still holds its codec and muxer, and its frame sinks still wait for the end
+        for (PcmSink sink : failedSinks) {
+            stopSink(sink);
+        }
+        failedSinks.clear();
+        metrics.mark(RecordingMetrics.Phase.STOPPED);
+        reportMetrics();
+
+        removeRecordingSinks();
+        destroyAudioRecord();
+    }
+
+    private void reportMetrics() {
+        metrics.setCounters(getRecordedDurationMs(),
+                ringBuffer.getOverrunCount() - overrunsAtStart,
+                ringBuffer.getUnderrunCount() - underrunsAtStart,
+                failedSinkCount);
+        if (fileSink instanceof AudioEncoderStage) {
+            AudioEncoderStage encoder = (AudioEncoderStage) fileSink;
+            metrics.setEncoderStats(encoder.getEncodedBytes(), encoder.getBusyNanos());
+        }
+        metrics.commit();
+
+        if (metricsListener != null) {
+            metricsListener.onRecordingMetrics(metrics);
+        }
+        metrics.reset();
+    }
+
+    // Pause the recording, the microphone is released but the sinks stay open
+    // so the next resume keeps appending to the same output
     public void pause() {
-        if (mediaRecorder != null && isRecording) {
+        if (isRecording && !isPaused) {
             // Save the current time when paused
             pausedTime = System.currentTimeMillis();
-            mediaRecorder.stop();
             isPaused = true;
+            stopAudioRecord();
+            joinThread(captureThread);
+            captureThread = null;
         }
     }
 
-    // Resume the recording from the last pause point
+    // Resume the recording from the last pause point, nothing captured while paused reaches the sinks
+    // so the output continues without a gap
     public void resume() throws IOException {
-        if (mediaRecorder == null) {
-            initMediaRecorder();
+        if (isRecording && isPaused) {
+            try {
+                audioRecord.startRecording();
+            } catch (IllegalStateException e) {
+                throw new IOException(e);
+            }
+            isPaused = false;
+            startCaptureThread();
+        }
+    }
+
+    private void stopAudioRecord() {
+        try {
+            audioRecord.stop();
+        } catch (IllegalStateException e) {
+            e.printStackTrace();
         }
+    }
 
-        if (isPaused) {
-            mediaRecorder.setOutputFile(filePath); // Output to the same file
-            mediaRecorder.prepare();
-            mediaRecorder.start();
-            isRecording = true;
-            isPaused = false;
+    private void captureLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+
+        short[] buffer = captureBuffer;
+        prerollCount = 0;
+        while ((isRecording || isWarm) && !isPaused) {
+            int read = audioRecord.read(buffer, 0, buffer.length);
+            if (read < 0) {
+                if ((isRecording || isWarm) && !isPaused) {
+                    Log.e(TAG, "AudioRecord.read failed: " + read);
+                }
+                break;
+            }
+
+            //a read that was in flight when pause() stopped the recorder is dropped
+            if (read == 0 || isPaused) {
+                continue;
+            }
+
+            if (!isRecording) {
+                storePreroll(buffer, read);
+                continue;
+            }
+
+            if (prerollCount > 0) {
+                flushPreroll();
+            }
+            metrics.markOnce(RecordingMetrics.Phase.FIRST_SAMPLE, System.nanoTime());
+
+            publishPeak(buffer, read);
+
+            if (!ringBuffer.offer(buffer, read)) {
+                Log.w(TAG, "Ring buffer full, dropped a frame");
+            }
+            LockSupport.unpark(dispatchThread);
+        }
+    }
+
+    private void storePreroll(short[] buffer, int length) {
+        int index = (prerollHead + prerollCount) % PREROLL_FRAMES;
+        if (prerollCount == PREROLL_FRAMES) {
+            //full, overwrite the oldest frame
+            prerollHead = (prerollHead + 1) % PREROLL_FRAMES;
+        } else {
+            prerollCount++;
+        }
+
+        System.arraycopy(buffer, 0, prerollFrames[index], 0, length);
+        prerollLengths[index] = length;
+        prerollTimes[index] = System.nanoTime();
+    }
+
+    //hands the pre-roll captured since the recording was requested to the sinks, oldest first
+    private void flushPreroll() {
+        long startNanos = recordStartNanos;
+        for (int i = 0; i < prerollCount; i++) {
+            int index = (prerollHead + i) % PREROLL_FRAMES;
+            //the time is taken when the read returned, i.e. at the end of the frame
+            if (prerollTimes[index] <= startNanos) {
+                continue;
+            }
+
+            metrics.markOnce(RecordingMetrics.Phase.FIRST_SAMPLE, prerollTimes[index]);
+            publishPeak(prerollFrames[index], prerollLengths[index]);
+            if (!ringBuffer.offer(prerollFrames[index], prerollLengths[index])) {
+                Log.w(TAG, "Ring buffer full, dropped a pre-roll frame");
+            }
+        }
+        prerollHead = 0;
+        prerollCount = 0;
+    }
+
+    private void dispatchLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+
+        short[] buffer = dispatchBuffer;
+        while (true) {
+            //read the flag before polling so the last frames queued by the capture thread are never skipped
+            boolean captureFinished = !isDispatching;
+            int length = ringBuffer.poll(buffer);
+            if (length < 0) {
+                if (captureFinished) {
+                    break;
+                }
+                LockSupport.parkNanos(this, DISPATCH_PARK_NANOS);
+                continue;
+            }
+
+            recordedSamples += length;
+            for (PcmSink sink : sinks) {
+                try {
+                    sink.onPcm(buffer, length);
+                } catch (IOException e) {
+                    Log.e(TAG, "Sink failed, removing it: " + e.getMessage());
+                    sinks.remove(sink);
+                    failedSinks.add(sink);
+                    failedSinkCount++;
+                    if (isFileSink(sink)) {
+                        fileFailure = e;
+                    }
+                }
+            }
+        }
+    }
+
+    private void publishPeak(short[] buffer, int length) {
+        int peak = updateMaxAmplitude(buffer, length);
+
+        //a full ring means nobody is drawing, dropping the peak is fine
+        capturePeak[0] = (short) recordingNumber;
+        capturePeak[1] = (short) Math.min(peak, Short.MAX_VALUE);
+        peakRing.offer(capturePeak, 2);
+    }
+
+    private int updateMaxAmplitude(short[] buffer, int length) {
+        int peak = 0;
+        for (int i = 0; i < length; i++) {
+            int value = Math.abs(buffer[i]);
+            if (value > peak) {
+                peak = value;
+            }
+        }
+
+        int current;
+        do {
+            current = maxAmplitude.get();
+            if (peak <= current) {
+                return peak;
+            }
+        } while (!maxAmplitude.compareAndSet(current, peak));
+        return peak;
+    }
+
+    private void joinThread(Thread thread) {
+        if (thread == null) {
+            return;
+        }
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    // Destroy the MediaRecorder instance
-    private void destroyMediaRecorder() {
-        if (mediaRecorder != null) {
-            mediaRecorder.release();
-            mediaRecorder = null;
+    // Destroy the AudioRecord instance
+    private void destroyAudioRecord() {
+        if (audioRecord != null) {
+            audioRecord.release();
+            audioRecord = null;
         }
     }
 
-    // Get the current amplitude
+    // Get the max amplitude since the last call, same contract as MediaRecorder.getMaxAmplitude()
     public int getMaxAmplitude() {
-        if (mediaRecorder != null) {
-            try {
-                return mediaRecorder.getMaxAmplitude();
-            } catch (IllegalStateException e) {
-                e.printStackTrace();
+        return maxAmplitude.getAndSet(0);
+    }
+
+    // Timings of the current recording, call mark() for phases that happen before start(), e.g. the touch
+    public RecordingMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Called with the metrics of every recording when it stops
+    public void setMetricsListener(RecordingMetrics.Listener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    // Peak of the next captured frame (20ms) that was not read yet, or -1 if there is none.
+    // Lock free, but only one thread may read peaks, normally the UI thread
+    public int pollPeak() {
+        short current = (short) recordingNumber;
+        while (peakRing.poll(readerPeak) >= 0) {
+            if (readerPeak[0] == current) {
+                return readerPeak[1];
             }
+            //left over from an earlier recording that nobody drew
+        }
+        return -1;
+    }
+
+    // Frames dropped because the sinks could not keep up with the capture thread
+    public long getOverrunCount() {
+        return ringBuffer.getOverrunCount();
+    }
+
+    // Counted by the dispatch thread without fences, exact once the recording stopped
+    public long getUnderrunCount() {
+        return ringBuffer.getUnderrunCount();
+    }
+
+    // Duration of the audio in the recording so far, paused periods and trimmed silence are not counted
+    public long getRecordedDurationMs() {
+        if (silenceTrimmer != null) {
+            return silenceTrimmer.getForwardedDurationMs(SAMPLE_RATE);
         }
-        return 0;
+        return recordedSamples * 1000 / (SAMPLE_RATE * CHANNEL_COUNT);
+    }
+
+    // Peak summary of the last recording, valid after stop()
+    public byte[] getWaveform() {
+        return waveformSummary.toByteArray();
+    }
+
+    // Why the file of the last recording was not finalized, e.g. the muxer failed, null if it was. Valid after stop()
+    public IOException getFileFailure() {
+        return fileFailure;
+    }
+
+    // Metadata of the last recording computed from the frame count, no need to probe the file
+    public AudioMetadata getRecordedMetadata(File recordedFile) {
+        return new AudioMetadata(getRecordedDurationMs(), SAMPLE_RATE, CHANNEL_COUNT, recordedFile.length());
+    }
+
+    public String getFilePath() {
+        return filePath;
     }
 
     public boolean isRecording() {
@@ -98,6 +626,10 @@ public class AudioRecorder {
         return isPaused;
     }
 
+    public boolean isWarm() {
+        return isWarm;
+    }
+
     public long getPausedTime() {
         return pausedTime;
     }
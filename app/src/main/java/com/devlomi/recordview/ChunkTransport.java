@@ -0,0 +1,27 @@
+package com.devlomi.recordview;
+
+import java.io.IOException;
+
+/**
+ * Carries {@link AudioChunk}s to the server for a {@link StreamingUploadSink}.
+ * <p>
+ * The protocol is resumable: the server keeps every chunk it acknowledged and can always tell
+ * which sequence number it expects next. After any failure the sink opens the upload again and
+ * skips what the server already has, so a chunk whose acknowledgement was lost is not stored twice.
+ * Calls are made from the sink's upload thread only and may block.
+ */
+public interface ChunkTransport {
+
+    /**
+     * Opens a new upload or resumes an existing one.
+     *
+     * @return the sequence number of the next chunk the server expects, 0 for a new upload
+     */
+    int open(String uploadId) throws IOException;
+
+    /**
+     * Returns once the server has verified the chunk's CRC and stored it durably.
+     * Sending a chunk the server already has must be harmless.
+     */
+    void send(AudioChunk chunk) throws IOException;
+}
@@ -0,0 +1,20 @@
+package com.devlomi.recordview;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the AAC access units produced by {@link AudioEncoderStage} while it is encoding.
+ * {@link #onFrame(ByteBuffer, long)} is invoked on the recorder's dispatch thread, {@link #onStart(int, int)}
+ * and {@link #onStop()} on the thread calling {@link AudioRecorder#start(String)} and {@link AudioRecorder#stop()}.
+ * The frame buffer belongs to the
+ * encoder and is only valid during {@link #onFrame(ByteBuffer, long)}, so sinks must copy what they keep.
+ */
+public interface EncodedFrameSink {
+    void onStart(int sampleRate, int channelCount) throws IOException;
+
+    // One raw AAC-LC frame between the buffer's position and limit
+    void onFrame(ByteBuffer frame, long presentationTimeUs) throws IOException;
+
+    void onStop() throws IOException;
+}
@@ -0,0 +1,69 @@
+package com.devlomi.recordview;
+
+import android.view.Choreographer;
+
+/**
+ * Moves the per frame peaks of {@link AudioRecorder} to the UI once per vsync.
+ * <p>
+ * Peaks are combined into bars of {@link #FRAMES_PER_BAR} frames, so bars follow the audio clock
+ * instead of a timer and never drift. Several bars produced within one vsync are drawn together.
+ * Must be used from the main thread.
+ */
+public class LiveWaveformFeeder implements Choreographer.FrameCallback {
+
+    public interface Listener {
+        void onBar(int amplitude);
+    }
+
+    //5 frames of 20ms, one bar every 100ms
+    public static final int FRAMES_PER_BAR = 5;
+
+    private final AudioRecorder audioRecorder;
+    private final Listener listener;
+    private boolean isRunning = false;
+    private int barPeak = 0;
+    private int barFrames = 0;
+
+    public LiveWaveformFeeder(AudioRecorder audioRecorder, Listener listener) {
+        this.audioRecorder = audioRecorder;
+        this.listener = listener;
+    }
+
+    public void start() {
+        if (isRunning) {
+            return;
+        }
+
+        isRunning = true;
+        barPeak = 0;
+        barFrames = 0;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    public void stop() {
+        isRunning = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!isRunning) {
+            return;
+        }
+
+        int peak;
+        while ((peak = audioRecorder.pollPeak()) >= 0) {
+            if (peak > barPeak) {
+                barPeak = peak;
+            }
+
+            if (++barFrames == FRAMES_PER_BAR) {
+                listener.onBar(barPeak);
+                barPeak = 0;
+                barFrames = 0;
+            }
+        }
+
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+}
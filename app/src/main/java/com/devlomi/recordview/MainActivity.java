@@ -2,12 +2,9 @@ package com.devlomi.recordview;
 
 import static android.content.pm.PackageManager.PERMISSION_GRANTED;
 
-import static com.devlomi.recordview.AppConfig.amplitudeArrayList;
-
-import com.visualizer.amplitude.AudioRecordView;
 
 import android.Manifest;
-import android.media.MediaPlayer;
+import android.app.ActivityManager;
 import android.os.Build;
 import android.os.Bundle;
 import android.text.Editable;
@@ -18,46 +15,69 @@ import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.Toast;
 
+import androidx.annotation.WorkerThread;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.devlomi.record_view.OnRecordAsyncListener;
 import com.devlomi.record_view.OnRecordClickListener;
 import com.devlomi.record_view.OnRecordListener;
+import com.devlomi.record_view.OnRecordPrewarmListener;
 import com.devlomi.record_view.RecordButton;
+import com.devlomi.record_view.RecordIoExecutor;
 import com.devlomi.record_view.RecordPermissionHandler;
 import com.devlomi.record_view.RecordView;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 public class MainActivity extends AppCompatActivity {
 
+    private static final int WAVEFORM_CACHE_BYTES = 512 * 1024;
+    private static final int WAVEFORM_CACHE_BYTES_LOW_RAM = 64 * 1024;
+    private static final long WAVEFORM_DISK_CACHE_BYTES = 4 * 1024 * 1024;
+    //longer pauses in a voice note are shortened to this
+    private static final int MAX_SILENCE_MS = 700;
+    private static final int HISTORY_PAGE_SIZE = 50;
+    private static final int HISTORY_WINDOW_SIZE = HISTORY_PAGE_SIZE * 3;
+    //another page is loaded when this close to either end of the window
+    private static final int HISTORY_PREFETCH_DISTANCE = 10;
+    //once per process, a later activity may share the journal with a recording that is still running
+    private static boolean isRecoveryDone = false;
+
     private RecyclerView recyclerView;
     private MessageAdapter messageAdapter;
-    private List<Message> messages = new ArrayList<>();
+    private MessageStore messageStore;
+    private MessagePager messagePager;
+    private LinearLayoutManager layoutManager;
+    //the next window shown should end at the newest message
+    private boolean isScrollToEndWanted = true;
     private EditText editTextMessage;
     private RecordView recordView;
     private RecordButton recordButton;
     private ImageButton sendButton, pauseButton; // Add pause button
-    private File recordFile;
+    //written on the RecordIoExecutor
+    private volatile File recordFile;
     private AudioRecorder audioRecorder;
-    private AudioRecordView audioRecordView;
-    private android.os.Handler amplitudeHandler = new android.os.Handler();
-    private Runnable updateAmplitudeTask;
+    private AudioMetadataService metadataService;
+    private RecordingFinalizer recordingFinalizer = new RecordingFinalizer();
+    private final RecordIoExecutor recordExecutor = RecordIoExecutor.getInstance();
+    private LiveWaveformFeeder waveformFeeder;
     private boolean isRecording = false;
     private WaveformView waveformView;
     private boolean isPaused = false;
+    //the record button is on screen, keep the microphone warm between recordings
+    private volatile boolean isPrewarmWanted = false;
     // New variable to store the current amplitude
     private int currentAmplitude = 0;
+    //bars of the current recording, replaced when the next one starts, shown whole while paused
+    private AmplitudeTrack amplitudeTrack = new AmplitudeTrack();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -66,23 +86,96 @@ public class MainActivity extends AppCompatActivity {
         pauseButton = findViewById(R.id.pause_resume_button);
 
         recyclerView = findViewById(R.id.messagesRecyclerView);
-        recyclerView.setLayoutManager(new LinearLayoutManager(this));
-        messageAdapter = new MessageAdapter(messages);
+        layoutManager = new LinearLayoutManager(this);
+        recyclerView.setLayoutManager(layoutManager);
+        metadataService = new AudioMetadataService();
+        messageAdapter = new MessageAdapter(createWaveformCache(), metadataService);
         recyclerView.setAdapter(messageAdapter);
+        messageStore = new MessageStore(this);
+        setupHistory();
 
         editTextMessage = findViewById(R.id.edit_text_message);
         recordView = findViewById(R.id.record_view);
         recordButton = findViewById(R.id.record_button);
         sendButton = findViewById(R.id.send_button);
-        audioRecordView = findViewById(R.id.audioRecordView);
+        waveformView = findViewById(R.id.waveform_view);
+        waveformView.setBarColor(ContextCompat.getColor(this, R.color.blue));
         audioRecorder = new AudioRecorder();
+        audioRecorder.setSilenceTrimming(MAX_SILENCE_MS);
+        audioRecorder.setJournal(new RecordingJournal(new File(getFilesDir(), "journal")));
+        audioRecorder.setMetricsListener(metrics -> Log.d("RecordingMetrics", metrics.toJson().toString()));
+        waveformFeeder = new LiveWaveformFeeder(audioRecorder, amplitude -> {
+            currentAmplitude = amplitude;
+            amplitudeTrack.add(amplitude);
+            waveformView.updateWave(amplitude / (float) Short.MAX_VALUE);
+        });
 
         setupRecordView();
         setupEditText();
+        recoverInterruptedRecordings();
 
         sendButton.setOnClickListener(v -> sendTextMessage());
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        Log.d("WaveformCache", messageAdapter.getWaveformCache().toString());
+        messageAdapter.release();
+        metadataService.release();
+        recordingFinalizer.release();
+        messageStore.release();
+        waveformFeeder.stop();
+        recordExecutor.execute(audioRecorder::cooldown);
+    }
+
+    private WaveformCache createWaveformCache() {
+        ActivityManager activityManager = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+        boolean lowRam = activityManager != null && activityManager.isLowRamDevice();
+        int maxBytes = lowRam ? WAVEFORM_CACHE_BYTES_LOW_RAM : WAVEFORM_CACHE_BYTES;
+        return new WaveformCache(maxBytes, new File(getFilesDir(), "waveforms"), WAVEFORM_DISK_CACHE_BYTES);
+    }
+
+    //only the newest page is loaded at start, others as the user scrolls
+    private void setupHistory() {
+        messagePager = new MessagePager(messageStore, HISTORY_PAGE_SIZE, HISTORY_WINDOW_SIZE);
+        messagePager.setListener(window -> messageAdapter.submitList(window, () -> {
+            if (isScrollToEndWanted && !window.isEmpty()) {
+                isScrollToEndWanted = false;
+                recyclerView.scrollToPosition(window.size() - 1);
+            }
+        }));
+        messagePager.loadLatest();
+
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (layoutManager.findFirstVisibleItemPosition() <= HISTORY_PREFETCH_DISTANCE) {
+                    messagePager.loadOlder();
+                }
+                if (layoutManager.findLastVisibleItemPosition() >= messageAdapter.getItemCount() - 1 - HISTORY_PREFETCH_DISTANCE) {
+                    messagePager.loadNewer();
+                }
+            }
+        });
+    }
+
+    // Stores the message and shows it at the end of the list
+    private void addMessage(Message message) {
+        addMessage(message, null);
+    }
+
+    // onStored runs on the main thread once the message's row exists
+    private void addMessage(Message message, Runnable onStored) {
+        messageStore.insert(message, onStored);
+        showMessage(message);
+    }
+
+    private void showMessage(Message message) {
+        isScrollToEndWanted = true;
+        messagePager.append(message);
+    }
+
     private void setupRecordView() {
         recordView.setLockEnabled(true);
         recordView.setRecordLockImageView(findViewById(R.id.record_lock));
@@ -93,25 +186,30 @@ public class MainActivity extends AppCompatActivity {
             Log.d("RecordButton", "RECORD BUTTON CLICKED");
         });
 
+        //UI only, the recorder and the files are handled by the async listener below
         recordView.setOnRecordListener(new OnRecordListener() {
             @Override
             public void onStart() {
                 pauseButton.setVisibility(View.GONE);
+                pauseButton.setImageDrawable(getResources().getDrawable(R.drawable.pause));
 
                 isRecording = true;
-                recordFile = new File(getFilesDir(), UUID.randomUUID().toString() + ".3gp");
-                try {
-                    audioRecorder.start(recordFile.getPath());
+                isPaused = false;
+                amplitudeTrack = new AmplitudeTrack();
 
-                    if (audioRecordView != null) {
-                        audioRecordView.setVisibility(View.VISIBLE);
-                        startUpdatingAmplitude();
-                    } else {
-                        Log.e("MainActivity", "AudioRecordView is null");
+                waveformView.setVisibility(View.VISIBLE);
+
+                recordView.getLastRecordTask().addCallback((result, error) -> {
+                    if (error != null) {
+                        Log.e("MainActivity", "Failed to start recording: " + error.getMessage());
+                        Toast.makeText(MainActivity.this, "Failed to start recording", Toast.LENGTH_SHORT).show();
+                        return;
                     }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                    //the user may have let go while the recorder was starting
+                    if (isRecording && !isPaused) {
+                        waveformFeeder.start();
+                    }
+                });
                 Log.d("RecordView", "onStart");
             }
 
@@ -119,8 +217,8 @@ public class MainActivity extends AppCompatActivity {
                 pauseButton.setVisibility(View.GONE);
 
                 isRecording = false;
-                stopRecording(true);
-                audioRecordView.setVisibility(View.GONE);
+                stopRecordingUi();
+                waveformView.setVisibility(View.GONE);
             }
 
             @Override
@@ -130,29 +228,15 @@ public class MainActivity extends AppCompatActivity {
 
                 // Existing code for handling the finish phase
                 isRecording = false;
-                stopRecording(false);
-                audioRecordView.setVisibility(View.GONE);
-                audioRecordView.recreate();
-
-                File savedFile = saveRecordingToDirectory(recordFile);
-                long duration = getAudioDuration(savedFile);
-
-                if (savedFile.exists()) {
-                    messages.add(new Message(savedFile, Message.Type.AUDIO, duration));
-                    messageAdapter.notifyDataSetChanged();
-
-                    Toast.makeText(MainActivity.this, "Recorded: " + savedFile.getPath(), Toast.LENGTH_SHORT).show();
-                    Log.d("RecordingFinish", "File saved at: " + savedFile.getPath());
-                } else {
-                    Toast.makeText(MainActivity.this, "Failed to save audio!", Toast.LENGTH_SHORT).show();
-                    Log.e("RecordingFinish", "File not found after saving!");
-                }
+                stopRecordingUi();
+                waveformView.setVisibility(View.GONE);
             }
 
             @Override
             public void onLessThanSecond() {
-                stopRecording(true);
-                audioRecordView.setVisibility(View.GONE);
+                isRecording = false;
+                stopRecordingUi();
+                waveformView.setVisibility(View.GONE);
             }
 
             @Override
@@ -161,14 +245,10 @@ public class MainActivity extends AppCompatActivity {
 
                 pauseButton.setOnClickListener(v -> {
                     if (isPaused) {
-                        try {
-                            resumeRecording();
-                            recordView.resumeCounter(); // Resume the timer!
-                            pauseButton.setImageDrawable(getResources().getDrawable(R.drawable.pause));
-                            isPaused = false;
-                        } catch (IOException e) {
-                            Log.e("MainActivity", "Error while resuming recording: " + e.getMessage());
-                        }
+                        resumeRecording();
+                        recordView.resumeCounter(); // Resume the timer!
+                        pauseButton.setImageDrawable(getResources().getDrawable(R.drawable.pause));
+                        isPaused = false;
                     } else {
                         pauseRecording();
                         recordView.pauseCounter(); // Pause the timer!
@@ -181,6 +261,85 @@ public class MainActivity extends AppCompatActivity {
 
         });
 
+        //runs on the RecordIoExecutor, in order, so a stop never overtakes its start
+        recordView.setOnRecordAsyncListener(new OnRecordAsyncListener() {
+            @Override
+            public void onStart() throws IOException {
+                //record straight into the final directory so finishing only needs an fsync
+                File file = new File(getRecordingDirectory(), UUID.randomUUID().toString() + ".m4a");
+                recordFile = file;
+
+                audioRecorder.getMetrics().mark(RecordingMetrics.Phase.TOUCH_DOWN, recordView.getLastTouchDownNanos());
+                audioRecorder.getMetrics().mark(RecordingMetrics.Phase.ACTION_DOWN, recordView.getLastActionDownNanos());
+                audioRecorder.start(file.getPath());
+            }
+
+            @Override
+            public void onCancel() {
+                stopRecording(true);
+            }
+
+            @Override
+            public void onFinish(long recordTime, boolean limitReached) {
+                File file = recordFile;
+                stopRecording(false);
+
+                IOException failure = audioRecorder.getFileFailure();
+                if (failure != null) {
+                    //the journal is kept, the next start rebuilds the recording from its frames
+                    Log.e("RecordingFinish", "Failed to finalize " + file.getPath() + ": " + failure.getMessage());
+                    runOnUiThread(() -> Toast.makeText(MainActivity.this,
+                            "Failed to save audio, it will be recovered on next start", Toast.LENGTH_SHORT).show());
+                    return;
+                }
+
+                //both are taken from the recorder now, it may start the next recording before the file is finalized
+                AudioMetadata metadata = audioRecorder.getRecordedMetadata(file);
+                byte[] waveform = audioRecorder.getWaveform();
+                File destFile = new File(getRecordingDirectory(), file.getName());
+
+                recordingFinalizer.finalizeRecording(file, destFile, waveform, new RecordingFinalizer.Callback() {
+                    @Override
+                    public void onFinalized(File savedFile, long modifiedAt) {
+                        metadataService.put(savedFile, modifiedAt, metadata);
+                        //the journal goes only once the row exists, until then a crash recovers the file,
+                        //and recovery skips files that already have a message
+                        RecordingJournal journal = audioRecorder.getJournal();
+                        addMessage(new Message(savedFile, modifiedAt, Message.Type.AUDIO, metadata.getDurationMs(), waveform),
+                                () -> recordExecutor.execute(() -> journal.commit(file)));
+
+                        Toast.makeText(MainActivity.this, "Recorded: " + savedFile.getPath(), Toast.LENGTH_SHORT).show();
+                        Log.d("RecordingFinish", "File saved at: " + savedFile.getPath());
+                    }
+
+                    @Override
+                    public void onFailed(File source, IOException e) {
+                        Toast.makeText(MainActivity.this, "Failed to save audio!", Toast.LENGTH_SHORT).show();
+                        Log.e("RecordingFinish", "Failed to save " + source.getPath() + ": " + e.getMessage());
+                    }
+                });
+            }
+
+            @Override
+            public void onLessThanSecond() {
+                stopRecording(true);
+            }
+        });
+
+        recordView.setOnRecordPrewarmListener(new OnRecordPrewarmListener() {
+            @Override
+            public void onPrewarm() {
+                isPrewarmWanted = true;
+                prewarmRecorder();
+            }
+
+            @Override
+            public void onCooldown() {
+                isPrewarmWanted = false;
+                recordExecutor.execute(audioRecorder::cooldown);
+            }
+        });
+
         recordView.setRecordPermissionHandler(() -> {
             if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) return true;
             boolean granted = ContextCompat.checkSelfPermission(this, Manifest.permission.RECORD_AUDIO) == PERMISSION_GRANTED;
@@ -191,44 +350,90 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
+    //opens the microphone ahead of the touch so the first syllable is not lost
+    private void prewarmRecorder() {
+        if (canPrewarm()) {
+            recordExecutor.tryExecute(this::warmUp);
+        }
+    }
+
+    //never ask for the permission here, only when the user actually records
+    private boolean canPrewarm() {
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.M
+                || ContextCompat.checkSelfPermission(this, Manifest.permission.RECORD_AUDIO) == PERMISSION_GRANTED;
+    }
+
+    @WorkerThread
+    private void warmUp() {
+        if (audioRecorder.isRecording()) {
+            return;
+        }
+
+        try {
+            audioRecorder.prewarm();
+        } catch (IOException e) {
+            Log.w("MainActivity", "Failed to prewarm the recorder: " + e.getMessage());
+        }
+    }
+
     private void pauseRecording() {
         if (audioRecorder != null && isRecording) {
-            audioRecorder.stop();
+            //nothing is captured while paused, no need to wake up every vsync
+            waveformFeeder.stop();
+            recordExecutor.execute(audioRecorder::pause);
             isPaused = true;
+            //the whole recording so far, so the user can see what they are about to send
+            showWaves(amplitudeTrack.toArray(waveformView.getBarCount()));
             Toast.makeText(this, "Recording Paused", Toast.LENGTH_SHORT).show();
         }
     }
 
-    private void resumeRecording() throws IOException {
+    private void resumeRecording() {
         if (isPaused) {
-            File newFile = new File(getFilesDir(), UUID.randomUUID().toString() + ".3gp");
-            audioRecorder.start(newFile.getPath()); // Start new recording
+            //back to the newest bars, live ones continue from there
+            showWaves(amplitudeTrack.toArray());
+
+            // Keep appending to the same file
+            recordExecutor.execute(audioRecorder::resume).addCallback((result, error) -> {
+                if (error != null) {
+                    Log.e("MainActivity", "Error while resuming recording: " + error.getMessage());
+                } else if (isRecording && !isPaused) {
+                    waveformFeeder.start();
+                }
+            });
             isPaused = false;
             Toast.makeText(this, "Recording Resumed", Toast.LENGTH_SHORT).show();
         }
     }
 
 
-    private void startUpdatingAmplitude() {
-        updateAmplitudeTask = new Runnable() {
-            @Override
-            public void run() {
-                // Removed the clearing of amplitudeArrayList
-                if (audioRecorder != null && isRecording) {
-                    currentAmplitude = audioRecorder.getMaxAmplitude();
-                    amplitudeArrayList.add(currentAmplitude);
-                    Log.d("Amplitude", "Current amplitude: " + amplitudeArrayList);
-
-                    audioRecordView.update(currentAmplitude);
-
-                    amplitudeHandler.postDelayed(this, 100); // Continue updating every 100ms
-                }
+    //recordings cut short by a crash or an OOM kill come back as messages
+    private void recoverInterruptedRecordings() {
+        if (isRecoveryDone) {
+            return;
+        }
+        isRecoveryDone = true;
+
+        //queued before any recording can start, the executor keeps that order
+        RecordingJournal journal = audioRecorder.getJournal();
+        recordExecutor.execute(() -> {
+            List<RecordingJournal.Recovered> recovered = journal.recover();
+            if (recovered.isEmpty()) {
+                return;
             }
-        };
-        amplitudeHandler.post(updateAmplitudeTask);
+            runOnUiThread(() -> {
+                for (RecordingJournal.Recovered recording : recovered) {
+                    //a recording stored just before the process died is recovered too, it already has its message
+                    Message message = new Message(recording.getFile(), recording.getModifiedAt(), Message.Type.AUDIO, recording.getDurationMs());
+                    messageStore.insertIfNew(message, () -> {
+                        showMessage(message);
+                        Toast.makeText(this, "Recovered " + recording.getFile().getName(), Toast.LENGTH_SHORT).show();
+                    });
+                }
+            });
+        });
     }
 
-
     private void setupEditText() {
         editTextMessage.addTextChangedListener(new TextWatcher() {
             @Override
@@ -251,52 +456,32 @@ public class MainActivity extends AppCompatActivity {
     private void sendTextMessage() {
         String text = editTextMessage.getText().toString().trim();
         if (!text.isEmpty()) {
-            messages.add(new Message(text, Message.Type.TEXT));
-            messageAdapter.notifyDataSetChanged();
+            addMessage(new Message(text, Message.Type.TEXT));
             editTextMessage.setText("");
         }
     }
 
-    private void stopRecording(boolean deleteFile) {
-        audioRecorder.stop();
-        audioRecordView.recreate();
-
-        if (recordFile != null && recordFile.exists() && deleteFile) {
-            recordFile.delete();
-            Log.d("RecordingFinish", "Recording canceled and file deleted");
-        }
+    private void stopRecordingUi() {
+        waveformFeeder.stop();
+        waveformView.clear();
     }
 
-    private File saveRecordingToDirectory(File sourceFile) {
-        File destDir = getRecordingDirectory();
-        File destFile = new File(destDir, UUID.randomUUID().toString() + ".3gp");
+    @WorkerThread
+    private void stopRecording(boolean deleteFile) {
+        audioRecorder.stop();
 
-        if (!sourceFile.exists()) {
-            Log.e("RecordingFinish", "Source file does not exist!");
-            return sourceFile;
+        if (isPrewarmWanted && canPrewarm()) {
+            warmUp();
         }
 
-        boolean moved = sourceFile.renameTo(destFile);
-        if (!moved) {
-            try (FileInputStream in = new FileInputStream(sourceFile);
-                 FileOutputStream out = new FileOutputStream(destFile)) {
-
-                byte[] buffer = new byte[1024];
-                int len;
-                while ((len = in.read(buffer)) > 0) {
-                    out.write(buffer, 0, len);
-                }
-                sourceFile.delete();
-                Log.d("RecordingFinish", "File copied to: " + destFile.getPath());
-
-            } catch (IOException e) {
-                Log.e("RecordingFinish", "Failed to copy file: " + e.getMessage());
+        File file = recordFile;
+        if (file != null && deleteFile) {
+            audioRecorder.getJournal().discard(file);
+            if (file.exists()) {
+                file.delete();
+                Log.d("RecordingFinish", "Recording canceled and file deleted");
             }
-        } else {
-            Log.d("RecordingFinish", "File moved to: " + destFile.getPath());
         }
-
-        return destFile;
     }
 
     private File getRecordingDirectory() {
@@ -305,21 +490,15 @@ public class MainActivity extends AppCompatActivity {
         return dir;
     }
 
-    private long getAudioDuration(File audioFile) {
-        long duration = 0;
-        try {
-            MediaPlayer player = new MediaPlayer();
-            player.setDataSource(audioFile.getPath());
-            player.prepare();
-            duration = player.getDuration();
-            player.release();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return duration;
-    }
-
     public int getCurrentAmplitude() {
         return currentAmplitude;
     }
+
+    private void showWaves(short[] entries) {
+        float[] waves = new float[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            waves[i] = entries[i] / (float) Short.MAX_VALUE;
+        }
+        waveformView.setWaves(waves, waves.length);
+    }
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package com.devlomi.recordview;
 
 import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Message {
 
@@ -9,22 +10,73 @@ public class Message {
         AUDIO
     }
 
+    //new messages get negative stable ids, stored ones their row id, so the two never collide.
+    //A message sent in this process keeps its negative id when loaded again, the MessageStore remembers it
+    private static final AtomicLong lastLocalId = new AtomicLong();
+
+    //row id in the MessageStore, 0 until the message is stored
+    private volatile long id;
+    private final long stableId;
+    private long createdAt = System.currentTimeMillis();
     private String text;
     private File audioFile;
+    //last modified time of the audio file, read off the main thread before the message is created
+    private long audioModifiedAt;
     private long audioDuration;
+    private byte[] waveform;
     private Type type;
 
     // Constructor for text message
     public Message(String text, Type type) {
+        this.stableId = lastLocalId.decrementAndGet();
         this.text = text;
         this.type = type;
     }
 
     // Constructor for audio message
-    public Message(File audioFile, Type type, long audioDuration) {
+    public Message(File audioFile, long audioModifiedAt, Type type, long audioDuration) {
+        this.stableId = lastLocalId.decrementAndGet();
         this.audioFile = audioFile;
+        this.audioModifiedAt = audioModifiedAt;
+        this.type = type;
+        this.audioDuration = audioDuration;
+    }
+
+    // Constructor for a message loaded from the MessageStore
+    Message(long id, long stableId, long createdAt, Type type, String text, File audioFile, long audioModifiedAt,
+            long audioDuration, byte[] waveform) {
+        this.id = id;
+        this.stableId = stableId;
+        this.createdAt = createdAt;
         this.type = type;
+        this.text = text;
+        this.audioFile = audioFile;
+        this.audioModifiedAt = audioModifiedAt;
         this.audioDuration = audioDuration;
+        this.waveform = waveform;
+    }
+
+    // Constructor for audio message with a precomputed waveform summary
+    public Message(File audioFile, long audioModifiedAt, Type type, long audioDuration, byte[] waveform) {
+        this(audioFile, audioModifiedAt, type, audioDuration);
+        this.waveform = waveform;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    void setId(long id) {
+        this.id = id;
+    }
+
+    // Never changes, not even when a new message gets its row id
+    public long getStableId() {
+        return stableId;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
     }
 
     public String getText() {
@@ -35,10 +87,24 @@ public class Message {
         return audioFile;
     }
 
+    // 0 if unknown, together with the file it keys everything cached about the audio
+    public long getAudioModifiedAt() {
+        return audioModifiedAt;
+    }
+
     public long getAudioDuration() {
         return audioDuration;
     }
 
+    // Peak summary of the audio, one unsigned byte per bucket, may be null
+    public byte[] getWaveform() {
+        return waveform;
+    }
+
+    public void setWaveform(byte[] waveform) {
+        this.waveform = waveform;
+    }
+
     public Type getType() {
         return type;
     }
@@ -1,7 +1,6 @@
 package com.devlomi.recordview;
 
 import android.graphics.Color;
-import android.media.MediaPlayer;
 import android.os.Handler;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -12,6 +11,8 @@ import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.visualizer.amplitude.AudioRecordView;
@@ -20,21 +21,71 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.List;
+import java.util.Objects;
 
 public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
     private static final int TYPE_TEXT = 0;
     private static final int TYPE_AUDIO = 1;
 
-    private List<Message> messages;
+    private static final DiffUtil.ItemCallback<Message> DIFF_CALLBACK = new DiffUtil.ItemCallback<Message>() {
+        @Override
+        public boolean areItemsTheSame(Message oldItem, Message newItem) {
+            return oldItem.getStableId() == newItem.getStableId();
+        }
+
+        //a page loaded again has new objects for the same rows, those must not be rebound
+        @Override
+        public boolean areContentsTheSame(Message oldItem, Message newItem) {
+            return oldItem == newItem
+                    || (oldItem.getType() == newItem.getType()
+                    && Objects.equals(oldItem.getText(), newItem.getText())
+                    && Objects.equals(oldItem.getAudioFile(), newItem.getAudioFile())
+                    && oldItem.getAudioDuration() == newItem.getAudioDuration());
+        }
+    };
+
+    //lists are diffed off the main thread, adding a message binds only its row
+    private final AsyncListDiffer<Message> differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+    private WaveformCache waveformCache;
+    private WaveformExtractor waveformExtractor;
+    private AudioPlaybackEngine playbackEngine = new AudioPlaybackEngine();
+    private AudioMetadataService metadataService;
+
+    public MessageAdapter(WaveformCache waveformCache, AudioMetadataService metadataService) {
+        setHasStableIds(true);
+        this.waveformCache = waveformCache;
+        this.metadataService = metadataService;
+        this.waveformExtractor = new WaveformExtractor(waveformCache);
+    }
 
-    public MessageAdapter(List<Message> messages) {
-        this.messages = messages;
+    // The list must not be modified afterwards, e.g. a MessagePager window
+    public void submitList(List<Message> messages, Runnable commitCallback) {
+        differ.submitList(messages, commitCallback);
+    }
+
+    public Message getItem(int position) {
+        return differ.getCurrentList().get(position);
+    }
+
+    public WaveformCache getWaveformCache() {
+        return waveformCache;
+    }
+
+    // Stops playback and pending waveform extractions, call it when the list goes away
+    public void release() {
+        playbackEngine.release();
+        waveformExtractor.release();
     }
 
     @Override
     public int getItemViewType(int position) {
-        return messages.get(position).getType() == Message.Type.AUDIO ? TYPE_AUDIO : TYPE_TEXT;
+        return getItem(position).getType() == Message.Type.AUDIO ? TYPE_AUDIO : TYPE_TEXT;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).getStableId();
     }
 
     @Override
@@ -50,18 +101,51 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
 
     @Override
     public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
-        Message message = messages.get(position);
+        Message message = getItem(position);
 
         if (holder instanceof TextViewHolder) {
             ((TextViewHolder) holder).bind(message.getText());
         } else if (holder instanceof AudioViewHolder) {
-            ((AudioViewHolder) holder).bind(message.getAudioFile(), message.getAudioDuration());
+            AudioViewHolder audioViewHolder = (AudioViewHolder) holder;
+            byte[] waveform = message.getWaveform();
+            if (waveform == null && message.getAudioFile() != null) {
+                waveform = waveformCache.get(message.getAudioFile(), message.getAudioModifiedAt());
+            }
+            long duration = message.getAudioDuration();
+            AudioMetadata metadata = null;
+            if (duration <= 0 && message.getAudioFile() != null) {
+                metadata = metadataService.get(message.getAudioFile(), message.getAudioModifiedAt());
+                if (metadata != null) {
+                    duration = metadata.getDurationMs();
+                }
+            }
+            audioViewHolder.bind(message.getAudioFile(), duration, waveform);
+
+            //files we did not record ourselves have no duration until they are probed
+            if (duration <= 0 && metadata == null && message.getAudioFile() != null) {
+                metadataService.probe(message.getAudioFile(), message.getAudioModifiedAt(), audioViewHolder::onMetadataReady);
+            }
+
+            if (waveform == null && message.getAudioFile() != null) {
+                waveformExtractor.extract(message.getAudioFile(), message.getAudioModifiedAt(), (audioFile, extracted) -> {
+                    waveformCache.put(audioFile, message.getAudioModifiedAt(), extracted);
+                    //the holder may have been recycled for another message in the meantime
+                    audioViewHolder.onWaveformReady(audioFile, extracted);
+                });
+            }
+        }
+    }
+
+    @Override
+    public void onViewRecycled(RecyclerView.ViewHolder holder) {
+        if (holder instanceof AudioViewHolder) {
+            ((AudioViewHolder) holder).onRecycled();
         }
     }
 
     @Override
     public int getItemCount() {
-        return messages.size();
+        return differ.getCurrentList().size();
     }
 
     public static class TextViewHolder extends RecyclerView.ViewHolder {
@@ -77,98 +161,111 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
         }
     }
 
-    public class AudioViewHolder extends RecyclerView.ViewHolder {
+    public class AudioViewHolder extends RecyclerView.ViewHolder implements AudioPlaybackEngine.Listener {
 
         private Button playAudioButton;
         private TextView audioDurationText;
         private AudioRecordView audioRecordView;
-        private MediaPlayer mediaPlayer;
         private boolean isPlaying = false;
         private boolean isPaused = false;
         private File currentAudioFile;
+        private byte[] waveform;
         private Handler handler = new Handler();
+        private final Runnable progressTask = this::updateAudioProgress;
 
         public AudioViewHolder(View itemView) {
             super(itemView);
             playAudioButton = itemView.findViewById(R.id.play_audio_button);
             audioDurationText = itemView.findViewById(R.id.audio_duration);
             audioRecordView = itemView.findViewById(R.id.progress_bar);
+
+            playAudioButton.setOnClickListener(v -> {
+                if (isPlaying) {
+                    pauseAudio();
+                } else {
+                    playAudio(currentAudioFile);
+                }
+            });
         }
 
-        public void bind(File audioFile, long audioDuration) {
+        //binding only shows what we already have, the player is not touched until the user hits play
+        public void bind(File audioFile, long audioDuration, byte[] waveform) {
+            boolean sameFile = audioFile != null && audioFile.equals(currentAudioFile);
+            if (!sameFile) {
+                playbackEngine.stop(this);
+            }
+
             currentAudioFile = audioFile;
+            this.waveform = waveform;
             audioDurationText.setText(getFormattedDuration(audioDuration));
 
-
-            if (mediaPlayer == null) {
-                mediaPlayer = new MediaPlayer();
-            } else {
-                mediaPlayer.reset();
-            }
-
-            try {
-                mediaPlayer.setDataSource(audioFile.getPath());
-                mediaPlayer.prepare();
-            } catch (IOException e) {
-                e.printStackTrace();
-                Toast.makeText(itemView.getContext(), "Failed to load audio", Toast.LENGTH_SHORT).show();
+            //rebinding the row that is playing must not reset its progress
+            if (sameFile && (isPlaying || isPaused)) {
                 return;
             }
 
-
             if (audioFile != null) {
                 audioRecordView.setVisibility(View.VISIBLE);
-                loadAmplitudeData();
+                showWaveform();
             }
 
-//            mediaPlayer.setOnCompletionListener(mp -> {
-//                stopAudio();
-//                audioRecordView.recreate();
-//            });
             updateButtonIcon(false);
+        }
 
+        private void onRecycled() {
+            playbackEngine.stop(this);
+            currentAudioFile = null;
+            waveform = null;
+        }
 
-            playAudioButton.setOnClickListener(v -> {
-                if (isPlaying) {
-                    pauseAudio();
-                } else {
-                    playAudio(currentAudioFile);
+        private void onMetadataReady(File audioFile, AudioMetadata metadata) {
+            if (audioFile.equals(currentAudioFile)) {
+                audioDurationText.setText(getFormattedDuration(metadata.getDurationMs()));
+            }
+        }
+
+        private void onWaveformReady(File audioFile, byte[] waveform) {
+            if (audioFile.equals(currentAudioFile)) {
+                this.waveform = waveform;
+                if (!isPlaying) {
+                    showWaveform();
                 }
-            });
+            }
         }
 
-        private void loadAmplitudeData() {
-            if (mediaPlayer == null || !mediaPlayer.isPlaying()) {
-                Log.e("Amplitude", "MediaPlayer is not initialized or not playing.");
+        //draw the whole summary at once, no decoding needed
+        private void showWaveform() {
+            audioRecordView.recreate();
+            if (waveform == null) {
                 return;
             }
 
-            int currentPosition = mediaPlayer.getCurrentPosition();
-            int duration = mediaPlayer.getDuration();
+            for (byte bucket : waveform) {
+                audioRecordView.update(toAmplitude(bucket));
+            }
+        }
 
+        //summary buckets are unsigned bytes, AudioRecordView expects MediaRecorder style amplitudes
+        private int toAmplitude(byte bucket) {
+            return (bucket & 0xFF) << 7;
+        }
 
-            if (duration > 0) {
+        private void loadAmplitudeData() {
+            int currentPosition = playbackEngine.getCurrentPosition(this);
+            int duration = playbackEngine.getDuration(this);
 
-                int amplitudeArraySize = AppConfig.amplitudeArrayList.size();
-                int index = (int) ((currentPosition / (float) duration) * amplitudeArraySize);
 
+            if (duration > 0 && waveform != null && waveform.length > 0) {
 
-                if (index >= amplitudeArraySize) {
-                    index = amplitudeArraySize - 1;
-                }
+                int index = (int) ((currentPosition / (float) duration) * waveform.length);
 
 
-                int amplitude = AppConfig.amplitudeArrayList.get(index);
-                audioRecordView.update(amplitude);
-            }
+                if (index >= waveform.length) {
+                    index = waveform.length - 1;
+                }
 
 
-            if (currentPosition >= duration) {
-                mediaPlayer.seekTo(0);
-                mediaPlayer.start();
-                AppConfig.amplitudeArrayList.clear();
-                audioRecordView.recreate();
-                loadAmplitudeData();
+                audioRecordView.update(toAmplitude(waveform[index]));
             }
         }
 
@@ -178,25 +275,20 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
                 return;
             }
 
-            if (mediaPlayer == null) {
-                mediaPlayer = new MediaPlayer();
-                try {
-                    mediaPlayer.setDataSource(audioFile.getPath());
-                    mediaPlayer.prepare();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    Toast.makeText(itemView.getContext(), "Failed to play audio", Toast.LENGTH_SHORT).show();
-                    return;
-                }
-
-                mediaPlayer.setOnCompletionListener(mp -> stopAudio());
-            } else {
-                mediaPlayer.seekTo(0);
+            if (!isPaused) {
+                audioRecordView.recreate();
             }
 
-            mediaPlayer.start();
-
+            try {
+                playbackEngine.play(audioFile, this);
+            } catch (IOException e) {
+                e.printStackTrace();
+                Toast.makeText(itemView.getContext(), "Failed to play audio", Toast.LENGTH_SHORT).show();
+            }
+        }
 
+        @Override
+        public void onPlaybackStarted() {
             isPlaying = true;
             isPaused = false;
 
@@ -204,52 +296,35 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
             updateAudioProgress();
         }
 
+        @Override
+        public void onPlaybackPaused() {
+            isPlaying = false;
+            isPaused = true;
+            updateButtonIcon(false);
 
-        private void updateAudioProgress() {
-            if (mediaPlayer != null && mediaPlayer.isPlaying()) {
-                int currentPosition = mediaPlayer.getCurrentPosition();
-                int duration = mediaPlayer.getDuration();
-
-                if (duration > 0) {
-
-                    int progress = (int) ((currentPosition / (float) duration) * 100);
-
-
-                    loadAmplitudeData();
+            handler.removeCallbacks(progressTask);
+        }
 
+        @Override
+        public void onPlaybackStopped() {
+            isPlaying = false;
+            isPaused = false;
+            updateButtonIcon(false);
+            showWaveform();
 
-                    handler.postDelayed(this::updateAudioProgress, 50);
-                } else {
-                    Log.e("AudioProgress", "Audio duration is zero or invalid.");
-                }
-            }
+            handler.removeCallbacks(progressTask);
         }
 
-        private void pauseAudio() {
-            if (mediaPlayer != null && mediaPlayer.isPlaying()) {
-                mediaPlayer.pause();
-                isPlaying = false;
-                isPaused = true;
-                updateButtonIcon(false);
 
-                handler.removeCallbacks(this::updateAudioProgress);
+        private void updateAudioProgress() {
+            if (playbackEngine.isPlaying(this)) {
+                loadAmplitudeData();
+                handler.postDelayed(progressTask, 50);
             }
         }
 
-        private void stopAudio() {
-            if (mediaPlayer != null) {
-                if (mediaPlayer.isPlaying()) {
-                    mediaPlayer.stop();
-                }
-                mediaPlayer.release();
-                mediaPlayer = null;
-            }
-
-            isPlaying = false;
-            isPaused = false;
-            updateButtonIcon(false);
-
-            handler.removeCallbacks(this::updateAudioProgress);
+        private void pauseAudio() {
+            playbackEngine.pause(this);
         }
 
         private void updateButtonIcon(boolean playing) {
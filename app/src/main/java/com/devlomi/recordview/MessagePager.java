@@ -0,0 +1,179 @@
+package com.devlomi.recordview;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A window over the message history, for the adapter to show.
+ * <p>
+ * At most maxSize messages are held. Pages are loaded from the {@link DataSource} as the user
+ * scrolls towards either end of the window, and once it grows past maxSize the far end is dropped
+ * again, so memory and diffing cost stay the same however long the history is. Every change
+ * publishes a new unmodifiable list, ready to be diffed against the previous one.
+ * <p>
+ * Main thread only, DataSource callbacks included.
+ */
+public class MessagePager {
+
+    public interface PageCallback {
+        /**
+         * @param page    oldest first
+         * @param hasMore whether there are more messages past the page in the direction it was loaded
+         */
+        void onPage(List<Message> page, boolean hasMore);
+    }
+
+    // Loads happen in call order, after any message inserted before them
+    public interface DataSource {
+        void loadLatest(int limit, PageCallback callback);
+
+        void loadBefore(Message oldest, int limit, PageCallback callback);
+
+        void loadAfter(Message newest, int limit, PageCallback callback);
+    }
+
+    public interface Listener {
+        void onWindowChanged(List<Message> window);
+    }
+
+    private final DataSource dataSource;
+    private final int pageSize;
+    private final int maxSize;
+    private List<Message> window = Collections.emptyList();
+    private boolean hasOlder = false;
+    private boolean hasNewer = false;
+    //one page at a time, a page is placed relative to the window it was requested for
+    private boolean isLoadingPage = false;
+    private boolean isLoadingLatest = false;
+    //appended while the latest page was loading, they are newer than anything in it
+    private final List<Message> pendingAppends = new ArrayList<>();
+    //bumped when the window is replaced, pages requested for the old one are dropped
+    private int generation = 0;
+    private Listener listener;
+
+    public MessagePager(DataSource dataSource, int pageSize, int maxSize) {
+        if (pageSize <= 0 || maxSize < pageSize * 2) {
+            throw new IllegalArgumentException("maxSize must hold at least two pages: " + pageSize + ", " + maxSize);
+        }
+        this.dataSource = dataSource;
+        this.pageSize = pageSize;
+        this.maxSize = maxSize;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Replaces the window with the newest page
+    public void loadLatest() {
+        int requested = ++generation;
+        isLoadingLatest = true;
+        isLoadingPage = false;
+        dataSource.loadLatest(pageSize, (page, hasMore) -> {
+            if (requested != generation) {
+                return;
+            }
+            isLoadingLatest = false;
+            hasOlder = hasMore;
+            hasNewer = false;
+
+            List<Message> next = new ArrayList<>(page.size() + pendingAppends.size());
+            next.addAll(page);
+            next.addAll(pendingAppends);
+            pendingAppends.clear();
+            publish(trimOldest(next));
+        });
+    }
+
+    public void loadOlder() {
+        if (!hasOlder || isLoadingPage || isLoadingLatest || window.isEmpty()) {
+            return;
+        }
+
+        isLoadingPage = true;
+        int requested = generation;
+        dataSource.loadBefore(window.get(0), pageSize, (page, hasMore) -> {
+            if (requested != generation) {
+                return;
+            }
+            isLoadingPage = false;
+            hasOlder = hasMore;
+
+            List<Message> next = new ArrayList<>(page.size() + window.size());
+            next.addAll(page);
+            next.addAll(window);
+            if (next.size() > maxSize) {
+                next = new ArrayList<>(next.subList(0, maxSize));
+                hasNewer = true;
+            }
+            publish(next);
+        });
+    }
+
+    public void loadNewer() {
+        if (!hasNewer || isLoadingPage || isLoadingLatest || window.isEmpty()) {
+            return;
+        }
+
+        isLoadingPage = true;
+        int requested = generation;
+        dataSource.loadAfter(window.get(window.size() - 1), pageSize, (page, hasMore) -> {
+            if (requested != generation) {
+                return;
+            }
+            isLoadingPage = false;
+            hasNewer = hasMore;
+
+            List<Message> next = new ArrayList<>(window.size() + page.size());
+            next.addAll(window);
+            next.addAll(page);
+            publish(trimOldest(next));
+        });
+    }
+
+    // A new message, insert it into the data source first
+    public void append(Message message) {
+        if (isLoadingLatest) {
+            pendingAppends.add(message);
+            return;
+        }
+        if (hasNewer) {
+            //the window is somewhere in the past, jump to the present, which now includes the message
+            loadLatest();
+            return;
+        }
+
+        List<Message> next = new ArrayList<>(window.size() + 1);
+        next.addAll(window);
+        next.add(message);
+        publish(trimOldest(next));
+    }
+
+    private List<Message> trimOldest(List<Message> messages) {
+        if (messages.size() <= maxSize) {
+            return messages;
+        }
+        hasOlder = true;
+        return new ArrayList<>(messages.subList(messages.size() - maxSize, messages.size()));
+    }
+
+    private void publish(List<Message> messages) {
+        window = Collections.unmodifiableList(messages);
+        if (listener != null) {
+            listener.onWindowChanged(window);
+        }
+    }
+
+    public List<Message> getWindow() {
+        return window;
+    }
+
+    public boolean hasOlder() {
+        return hasOlder;
+    }
+
+    public boolean hasNewer() {
+        return hasNewer;
+    }
+}
@@ -0,0 +1,265 @@
+package com.devlomi.recordview;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the chat history in SQLite so it survives restarts.
+ * <p>
+ * Messages are indexed by (created_at, _id) and read in pages with keyset pagination: a page is
+ * the messages just before a given one, found through the index, so opening or scrolling the
+ * history costs the same whether it has a hundred or a hundred thousand messages. Nothing ever
+ * counts or scans the whole table, looking up a recording by its file goes through an index too.
+ * <p>
+ * All database work happens on one background thread in call order, callbacks are called on the
+ * main thread. After {@link #release()} loads are ignored, but messages are still stored: they
+ * are the user's, e.g. a recording that finished saving after the activity went away.
+ */
+public class MessageStore implements MessagePager.DataSource {
+    private static final String TAG = "MessageStore";
+    private static final long IDLE_TIMEOUT_SECONDS = 10;
+    private static final String DATABASE_NAME = "messages.db";
+    private static final int DATABASE_VERSION = 2;
+
+    private static final String TABLE = "messages";
+    private static final String COLUMN_ID = "_id";
+    private static final String COLUMN_CREATED_AT = "created_at";
+    private static final String COLUMN_TYPE = "type";
+    private static final String COLUMN_TEXT = "text";
+    private static final String COLUMN_AUDIO_PATH = "audio_path";
+    private static final String COLUMN_DURATION = "duration_ms";
+    private static final String COLUMN_WAVEFORM = "waveform";
+    private static final String[] COLUMNS = {
+            COLUMN_ID, COLUMN_CREATED_AT, COLUMN_TYPE, COLUMN_TEXT, COLUMN_AUDIO_PATH, COLUMN_DURATION, COLUMN_WAVEFORM
+    };
+    //both orders are served by the index below without sorting
+    private static final String NEWEST_FIRST = COLUMN_CREATED_AT + " DESC, " + COLUMN_ID + " DESC";
+    private static final String OLDEST_FIRST = COLUMN_CREATED_AT + " ASC, " + COLUMN_ID + " ASC";
+    private static final String BEFORE = COLUMN_CREATED_AT + " < ? OR (" + COLUMN_CREATED_AT + " = ? AND " + COLUMN_ID + " < ?)";
+    private static final String AFTER = COLUMN_CREATED_AT + " > ? OR (" + COLUMN_CREATED_AT + " = ? AND " + COLUMN_ID + " > ?)";
+
+    private static class OpenHelper extends SQLiteOpenHelper {
+        OpenHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+            //readers don't wait for the appends
+            setWriteAheadLoggingEnabled(true);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE + " ("
+                    + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + COLUMN_CREATED_AT + " INTEGER NOT NULL, "
+                    + COLUMN_TYPE + " INTEGER NOT NULL, "
+                    + COLUMN_TEXT + " TEXT, "
+                    + COLUMN_AUDIO_PATH + " TEXT, "
+                    + COLUMN_DURATION + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_WAVEFORM + " BLOB)");
+            db.execSQL("CREATE INDEX " + TABLE + "_by_time ON " + TABLE + " (" + COLUMN_CREATED_AT + ", " + COLUMN_ID + ")");
+            createAudioPathIndex(db);
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            if (oldVersion < 2) {
+                createAudioPathIndex(db);
+            }
+        }
+
+        private static void createAudioPathIndex(SQLiteDatabase db) {
+            db.execSQL("CREATE INDEX " + TABLE + "_by_audio_path ON " + TABLE + " (" + COLUMN_AUDIO_PATH + ")");
+        }
+    }
+
+    private final OpenHelper helper;
+    //the thread goes away when idle, so a released store holds nothing
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "MessageStore");
+        return thread;
+    });
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile boolean isReleased = false;
+    //row id to stable id of the messages inserted by this process, store thread only. Loaded again
+    //they keep the id the adapter already knows them by, so a reload does not remove and re-add them
+    private final Map<Long, Long> localStableIds = new HashMap<>();
+
+    public MessageStore(Context context) {
+        helper = new OpenHelper(context.getApplicationContext());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    // Appends the message, its id is set once it is stored
+    public void insert(Message message) {
+        insert(message, null);
+    }
+
+    /**
+     * Appends the message and calls onStored on the main thread once its row exists, also after
+     * {@link #release()}. It is not called when the message could not be stored.
+     */
+    public void insert(Message message, Runnable onStored) {
+        executor.execute(() -> {
+            if (store(message) && onStored != null) {
+                mainHandler.post(onStored);
+            }
+            closeIfReleased();
+        });
+    }
+
+    /**
+     * Appends an audio message unless a message of the same file is already stored, e.g. a
+     * recording that is recovered again because the process died before its journal was committed.
+     * onInserted is called on the main thread only when the message was appended.
+     */
+    public void insertIfNew(Message message, Runnable onInserted) {
+        executor.execute(() -> {
+            if (!hasAudio(message.getAudioFile()) && store(message)) {
+                mainHandler.post(onInserted);
+            }
+            closeIfReleased();
+        });
+    }
+
+    private boolean hasAudio(File audioFile) {
+        try (Cursor cursor = helper.getReadableDatabase().query(TABLE, new String[]{COLUMN_ID},
+                COLUMN_AUDIO_PATH + " = ?", new String[]{audioFile.getPath()}, null, null, null, "1")) {
+            return cursor.moveToNext();
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to look up " + audioFile.getName() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean store(Message message) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_CREATED_AT, message.getCreatedAt());
+        values.put(COLUMN_TYPE, message.getType().ordinal());
+        values.put(COLUMN_TEXT, message.getText());
+        File audioFile = message.getAudioFile();
+        values.put(COLUMN_AUDIO_PATH, audioFile != null ? audioFile.getPath() : null);
+        values.put(COLUMN_DURATION, message.getAudioDuration());
+        values.put(COLUMN_WAVEFORM, message.getWaveform());
+
+        try {
+            long id = helper.getWritableDatabase().insertOrThrow(TABLE, null, values);
+            message.setId(id);
+            localStableIds.put(id, message.getStableId());
+            return true;
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to store message: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void closeIfReleased() {
+        if (isReleased) {
+            //reopened for a late message, close it again
+            helper.close();
+        }
+    }
+
+    // The newest messages
+    @Override
+    public void loadLatest(int limit, MessagePager.PageCallback callback) {
+        if (isReleased) {
+            return;
+        }
+        executor.execute(() -> deliver(query(null, null, NEWEST_FIRST, limit), limit, true, callback));
+    }
+
+    // The messages just before the given one, which must have been inserted into or loaded from the store
+    @Override
+    public void loadBefore(Message oldest, int limit, MessagePager.PageCallback callback) {
+        if (isReleased) {
+            return;
+        }
+        //the id is read here, after any pending insert of that message has set it
+        executor.execute(() -> deliver(query(BEFORE, positionOf(oldest), NEWEST_FIRST, limit), limit, true, callback));
+    }
+
+    // The messages just after the given one
+    @Override
+    public void loadAfter(Message newest, int limit, MessagePager.PageCallback callback) {
+        if (isReleased) {
+            return;
+        }
+        executor.execute(() -> deliver(query(AFTER, positionOf(newest), OLDEST_FIRST, limit), limit, false, callback));
+    }
+
+    private static String[] positionOf(Message message) {
+        String createdAt = String.valueOf(message.getCreatedAt());
+        return new String[]{createdAt, createdAt, String.valueOf(message.getId())};
+    }
+
+    private List<Message> query(String selection, String[] args, String orderBy, int limit) {
+        List<Message> page = new ArrayList<>();
+        //one extra row tells whether there is another page
+        try (Cursor cursor = helper.getReadableDatabase().query(TABLE, COLUMNS, selection, args,
+                null, null, orderBy, String.valueOf(limit + 1))) {
+            int id = cursor.getColumnIndexOrThrow(COLUMN_ID);
+            int createdAt = cursor.getColumnIndexOrThrow(COLUMN_CREATED_AT);
+            int type = cursor.getColumnIndexOrThrow(COLUMN_TYPE);
+            int text = cursor.getColumnIndexOrThrow(COLUMN_TEXT);
+            int audioPath = cursor.getColumnIndexOrThrow(COLUMN_AUDIO_PATH);
+            int duration = cursor.getColumnIndexOrThrow(COLUMN_DURATION);
+            int waveform = cursor.getColumnIndexOrThrow(COLUMN_WAVEFORM);
+
+            while (cursor.moveToNext()) {
+                String path = cursor.getString(audioPath);
+                File audioFile = path != null ? new File(path) : null;
+                long rowId = cursor.getLong(id);
+                Long stableId = localStableIds.get(rowId);
+                //stat here, on the store thread, so the adapter never touches the file to key its caches
+                page.add(new Message(rowId, stableId != null ? stableId : rowId, cursor.getLong(createdAt),
+                        Message.Type.values()[cursor.getInt(type)], cursor.getString(text),
+                        audioFile, audioFile != null ? audioFile.lastModified() : 0, cursor.getLong(duration),
+                        cursor.isNull(waveform) ? null : cursor.getBlob(waveform)));
+            }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to load messages: " + e.getMessage());
+        }
+        return page;
+    }
+
+    private void deliver(List<Message> rows, int limit, boolean newestFirst, MessagePager.PageCallback callback) {
+        boolean hasMore = rows.size() > limit;
+        List<Message> page = hasMore ? new ArrayList<>(rows.subList(0, limit)) : rows;
+        if (newestFirst) {
+            Collections.reverse(page);
+        }
+        mainHandler.post(() -> {
+            if (!isReleased) {
+                callback.onPage(page, hasMore);
+            }
+        });
+    }
+
+    // Closes the database once pending work is done, later inserts still go through
+    public void release() {
+        isReleased = true;
+        mainHandler.removeCallbacksAndMessages(null);
+        executor.execute(helper::close);
+    }
+}
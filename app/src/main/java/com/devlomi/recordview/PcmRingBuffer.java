@@ -0,0 +1,120 @@
+package com.devlomi.recordview;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer/single-consumer ring of PCM frames.
+ * <p>
+ * All slots are allocated up front, {@link #offer(short[], int)} and {@link #poll(short[])} only copy
+ * samples so neither side allocates. Exactly one thread may call {@code offer} and exactly one
+ * (other) thread may call {@code poll}.
+ * <p>
+ * When the ring is full the producer drops the frame instead of waiting, so a stalled consumer can
+ * never block the capture thread; every dropped frame is counted as an overrun. Every poll that
+ * finds the ring empty is counted as an underrun.
+ */
+public class PcmRingBuffer {
+    private final short[][] slots;
+    private final int[] lengths;
+    private final int mask;
+    private final int frameSize;
+
+    //written by the producer only
+    private final AtomicLong writeIndex = new AtomicLong();
+    //written by the consumer only
+    private final AtomicLong readIndex = new AtomicLong();
+
+    private final AtomicLong overrunCount = new AtomicLong();
+    //only the consumer touches it, so a plain field is enough; read it from another thread only
+    //after the consumer was joined
+    private long underrunCount;
+
+    /**
+     * @param capacity  number of frames, rounded up to the next power of two
+     * @param frameSize max samples per frame
+     */
+    public PcmRingBuffer(int capacity, int frameSize) {
+        if (capacity <= 0 || frameSize <= 0) {
+            throw new IllegalArgumentException("capacity and frameSize must be positive");
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        this.slots = new short[size][frameSize];
+        this.lengths = new int[size];
+        this.mask = size - 1;
+        this.frameSize = frameSize;
+    }
+
+    /**
+     * Copies {@code length} samples into the next free slot.
+     *
+     * @return false if the ring was full and the frame was dropped
+     */
+    public boolean offer(short[] source, int length) {
+        if (length > frameSize) {
+            throw new IllegalArgumentException("frame of " + length + " samples exceeds slot size " + frameSize);
+        }
+
+        long write = writeIndex.get();
+        if (write - readIndex.get() > mask) {
+            overrunCount.incrementAndGet();
+            return false;
+        }
+
+        int slot = (int) (write & mask);
+        System.arraycopy(source, 0, slots[slot], 0, length);
+        lengths[slot] = length;
+
+        //publish the slot contents before the new index becomes visible to the consumer
+        writeIndex.lazySet(write + 1);
+        return true;
+    }
+
+    /**
+     * Copies the oldest frame into {@code destination}, which must hold at least {@link #getFrameSize()} samples.
+     *
+     * @return the number of samples copied, or -1 if the ring was empty
+     */
+    public int poll(short[] destination) {
+        long read = readIndex.get();
+        if (read == writeIndex.get()) {
+            underrunCount++;
+            return -1;
+        }
+
+        int slot = (int) (read & mask);
+        int length = lengths[slot];
+        System.arraycopy(slots[slot], 0, destination, 0, length);
+
+        readIndex.lazySet(read + 1);
+        return length;
+    }
+
+    public boolean isEmpty() {
+        return readIndex.get() == writeIndex.get();
+    }
+
+    public int size() {
+        return (int) (writeIndex.get() - readIndex.get());
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public long getOverrunCount() {
+        return overrunCount.get();
+    }
+
+    public long getUnderrunCount() {
+        return underrunCount;
+    }
+}
@@ -0,0 +1,17 @@
+package com.devlomi.recordview;
+
+import java.io.IOException;
+
+/**
+ * Receives raw 16-bit PCM frames from {@link AudioRecorder}.
+ * {@link #onPcm(short[], int)} is invoked on the recorder's dispatch thread, {@link #onStart(int, int)}
+ * and {@link #onStop()} on the thread calling {@link AudioRecorder#start(String)} and {@link AudioRecorder#stop()}.
+ * The buffer is reused by the recorder after onPcm returns so sinks must copy what they keep.
+ */
+public interface PcmSink {
+    void onStart(int sampleRate, int channelCount) throws IOException;
+
+    void onPcm(short[] buffer, int length) throws IOException;
+
+    void onStop() throws IOException;
+}
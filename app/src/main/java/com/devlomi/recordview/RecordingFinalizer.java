@@ -0,0 +1,102 @@
+package com.devlomi.recordview;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Moves a finished recording to its final place and makes it durable, off the main thread.
+ * <p>
+ * Recordings are normally written straight into their destination directory and only need an
+ * fsync. Otherwise the file is renamed, and when that fails (e.g. across filesystems) it is copied
+ * with {@link FileChannel#transferTo} so the kernel moves the bytes without going through our heap.
+ */
+public class RecordingFinalizer {
+
+    public interface Callback {
+        // modifiedAt is the file's last modified time once it is durable
+        void onFinalized(File file, long modifiedAt);
+
+        void onFailed(File source, IOException e);
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "RecordingFinalizer");
+        return thread;
+    });
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Returns immediately, the callback is called on the main thread once the file is durable.
+     *
+     * @param waveform summary written next to the final file, may be null
+     */
+    public void finalizeRecording(File source, File destination, byte[] waveform, Callback callback) {
+        executor.execute(() -> {
+            try {
+                File file = moveDurably(source, destination);
+                if (waveform != null) {
+                    WaveformStore.write(file, waveform);
+                }
+                long modifiedAt = file.lastModified();
+                mainHandler.post(() -> callback.onFinalized(file, modifiedAt));
+            } catch (IOException e) {
+                mainHandler.post(() -> callback.onFailed(source, e));
+            }
+        });
+    }
+
+    public void release() {
+        //let queued recordings finish, they are the user's data
+        executor.shutdown();
+    }
+
+    static File moveDurably(File source, File destination) throws IOException {
+        if (!source.exists()) {
+            throw new IOException("Source file does not exist: " + source.getPath());
+        }
+
+        if (source.equals(destination)) {
+            sync(source);
+            return source;
+        }
+
+        if (source.renameTo(destination)) {
+            sync(destination);
+            return destination;
+        }
+
+        try (FileChannel in = new FileInputStream(source).getChannel();
+             FileChannel out = new FileOutputStream(destination).getChannel()) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            out.force(true);
+        }
+
+        if (!source.delete()) {
+            source.deleteOnExit();
+        }
+        return destination;
+    }
+
+    private static void sync(File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.getFD().sync();
+        }
+    }
+}
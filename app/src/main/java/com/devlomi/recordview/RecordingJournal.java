@@ -0,0 +1,426 @@
+package com.devlomi.recordview;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps recordings recoverable if the process dies before they are finalized.
+ * <p>
+ * An .m4a file is only playable once the muxer has written its index on stop, so while recording
+ * every encoded frame is also appended, with an ADTS header, to '&lt;recording&gt;.aac' in the journal
+ * directory. ADTS frames can be read back without any index. Every {@link #CHECKPOINT_INTERVAL_US}
+ * of audio the frames are fsynced and '&lt;recording&gt;.journal' is rewritten with how many bytes and
+ * frames are durable.
+ * <p>
+ * Both files are deleted once the recording is finalized or discarded, so on startup
+ * {@link #recover()} only lists the journal directory, which is normally empty, instead of scanning
+ * the recordings.
+ */
+public class RecordingJournal {
+    private static final String TAG = "RecordingJournal";
+    public static final long CHECKPOINT_INTERVAL_US = 2_000_000;
+    private static final String JOURNAL_EXTENSION = ".journal";
+    private static final String FRAMES_EXTENSION = ".aac";
+    private static final int MAGIC = 0x4A524E4C; //"JRNL"
+    private static final int VERSION = 1;
+    //recordings shorter than this are dropped, like onLessThanSecond does
+    private static final long MIN_RECOVERED_DURATION_MS = 1000;
+    private static final int MAX_SAMPLE_SIZE = 8192;
+
+    static final int STATE_RECORDING = 0;
+    static final int STATE_STOPPED = 1;
+
+    private final File directory;
+
+    public RecordingJournal(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    // Journals the encoded frames of a recording, add it to the encoder before it starts
+    public Session begin(File recording) {
+        return new Session(recording, journalFileFor(recording), framesFileFor(recording));
+    }
+
+    // The recording was finalized and its message stored, it no longer needs its journal
+    public void commit(File recording) {
+        delete(journalFileFor(recording));
+        delete(framesFileFor(recording));
+    }
+
+    // The recording was cancelled, its journal goes with it
+    public void discard(File recording) {
+        //journal first, so a crash in between never recovers a cancelled recording
+        delete(journalFileFor(recording));
+        delete(framesFileFor(recording));
+    }
+
+    File journalFileFor(File recording) {
+        return new File(directory, recording.getName() + JOURNAL_EXTENSION);
+    }
+
+    File framesFileFor(File recording) {
+        return new File(directory, recording.getName() + FRAMES_EXTENSION);
+    }
+
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Failed to delete " + file.getPath());
+        }
+    }
+
+    public static class Recovered {
+        private final File file;
+        private final long modifiedAt;
+        private final long durationMs;
+
+        Recovered(File file, long durationMs) {
+            this.file = file;
+            this.modifiedAt = file.lastModified();
+            this.durationMs = durationMs;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public long getModifiedAt() {
+            return modifiedAt;
+        }
+
+        public long getDurationMs() {
+            return durationMs;
+        }
+    }
+
+    /**
+     * Turns the journals left by a previous process back into playable recordings.
+     * Blocks, call it off the main thread, once per process and before anything is recorded.
+     */
+    public List<Recovered> recover() {
+        List<Recovered> recovered = new ArrayList<>();
+        File[] journals = directory.listFiles((dir, name) -> name.endsWith(JOURNAL_EXTENSION));
+        if (journals == null) {
+            return recovered;
+        }
+
+        for (File journalFile : journals) {
+            try {
+                Recovered recording = recover(journalFile);
+                if (recording != null) {
+                    recovered.add(recording);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to recover " + journalFile.getName() + ": " + e.getMessage());
+            }
+
+            //either way it is done, a broken journal must not be retried on every start
+            File recording = new File(journalFile.getName().substring(0,
+                    journalFile.getName().length() - JOURNAL_EXTENSION.length()));
+            commit(recording);
+        }
+
+        //temporary files and frames whose journal was never written, nothing is recording yet
+        File[] leftovers = directory.listFiles();
+        if (leftovers != null) {
+            for (File leftover : leftovers) {
+                delete(leftover);
+            }
+        }
+        return recovered;
+    }
+
+    private Recovered recover(File journalFile) throws IOException {
+        Checkpoint checkpoint = Checkpoint.read(journalFile);
+        File recording = new File(checkpoint.recordingPath);
+
+        //the process may have died after finalizing but before the journal was committed
+        long finalizedDurationUs = readDurationUs(recording);
+        if (finalizedDurationUs > 0) {
+            Log.d(TAG, "Recording was already finalized: " + recording.getName());
+            return new Recovered(recording, finalizedDurationUs / 1000);
+        }
+
+        File framesFile = new File(directory, recording.getName() + FRAMES_EXTENSION);
+        long frameCount = truncateToCompleteFrames(framesFile, checkpoint);
+        long durationMs = frameCount * Adts.SAMPLES_PER_FRAME * 1000 / checkpoint.sampleRate;
+        if (durationMs < MIN_RECOVERED_DURATION_MS) {
+            Log.d(TAG, "Dropping interrupted recording of " + durationMs + "ms: " + recording.getName());
+            delete(recording);
+            return null;
+        }
+
+        File file;
+        File remuxed = new File(directory, recording.getName() + ".tmp");
+        try {
+            remux(framesFile, remuxed);
+            file = RecordingFinalizer.moveDurably(remuxed, recording);
+        } catch (IOException e) {
+            //the ADTS frames play as they are, better than losing the recording
+            Log.w(TAG, "Failed to remux " + recording.getName() + ", keeping raw AAC: " + e.getMessage());
+            delete(remuxed);
+            delete(recording);
+            file = RecordingFinalizer.moveDurably(framesFile, new File(recording.getParentFile(), recording.getName() + FRAMES_EXTENSION));
+        }
+        Log.d(TAG, "Recovered " + durationMs + "ms into " + file.getName());
+        return new Recovered(file, durationMs);
+    }
+
+    /**
+     * Drops a torn frame at the end of the frames file. Frames written after the last checkpoint are
+     * kept when they are complete, they usually survive a process kill in the page cache.
+     *
+     * @return the number of complete frames left
+     */
+    static long truncateToCompleteFrames(File framesFile, Checkpoint checkpoint) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(framesFile, "rw")) {
+            long durableBytes = Math.min(checkpoint.durableBytes, file.length());
+            long frameCount = checkpoint.durableFrames;
+            if (durableBytes < checkpoint.durableBytes) {
+                //the durable part itself is short, count what is there from the start
+                durableBytes = 0;
+                frameCount = 0;
+            }
+
+            //only the tail after the checkpoint is scanned
+            byte[] tail = new byte[(int) Math.min(file.length() - durableBytes, Integer.MAX_VALUE - 8)];
+            file.seek(durableBytes);
+            file.readFully(tail);
+
+            int offset = 0;
+            int frameLength;
+            while ((frameLength = Adts.frameLength(tail, offset, tail.length)) > 0) {
+                offset += frameLength;
+                frameCount++;
+            }
+
+            file.setLength(durableBytes + offset);
+            file.getFD().sync();
+            return frameCount;
+        }
+    }
+
+    private static void remux(File framesFile, File destination) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaMuxer muxer = null;
+        boolean muxerStarted = false;
+        try {
+            extractor.setDataSource(framesFile.getPath());
+            if (extractor.getTrackCount() == 0) {
+                throw new IOException("No audio track in " + framesFile.getName());
+            }
+            extractor.selectTrack(0);
+            MediaFormat format = extractor.getTrackFormat(0);
+
+            muxer = new MediaMuxer(destination.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            int track = muxer.addTrack(format);
+            muxer.start();
+            muxerStarted = true;
+
+            ByteBuffer buffer = ByteBuffer.allocate(MAX_SAMPLE_SIZE);
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            int size;
+            while ((size = extractor.readSampleData(buffer, 0)) >= 0) {
+                info.offset = 0;
+                info.size = size;
+                info.presentationTimeUs = extractor.getSampleTime();
+                info.flags = extractor.getSampleFlags();
+                muxer.writeSampleData(track, buffer, info);
+                extractor.advance();
+            }
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            throw new IOException(e);
+        } finally {
+            extractor.release();
+            if (muxer != null) {
+                try {
+                    if (muxerStarted) {
+                        muxer.stop();
+                    }
+                } finally {
+                    muxer.release();
+                }
+            }
+        }
+    }
+
+    // Duration of a finalized recording, 0 when it has no index yet or does not exist
+    private static long readDurationUs(File recording) {
+        if (!recording.exists() || recording.length() == 0) {
+            return 0;
+        }
+
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(recording.getPath());
+            if (extractor.getTrackCount() == 0) {
+                return 0;
+            }
+            MediaFormat format = extractor.getTrackFormat(0);
+            return format.containsKey(MediaFormat.KEY_DURATION) ? format.getLong(MediaFormat.KEY_DURATION) : 0;
+        } catch (IOException | RuntimeException e) {
+            return 0;
+        } finally {
+            extractor.release();
+        }
+    }
+
+    //what the journal file says about a recording
+    static class Checkpoint {
+        final String recordingPath;
+        final int sampleRate;
+        final int channelCount;
+        final int state;
+        final long durableBytes;
+        final long durableFrames;
+
+        Checkpoint(String recordingPath, int sampleRate, int channelCount, int state, long durableBytes, long durableFrames) {
+            this.recordingPath = recordingPath;
+            this.sampleRate = sampleRate;
+            this.channelCount = channelCount;
+            this.state = state;
+            this.durableBytes = durableBytes;
+            this.durableFrames = durableFrames;
+        }
+
+        // Written to a temporary file and renamed, a crash leaves either the old or the new checkpoint
+        void write(File journalFile) throws IOException {
+            File temp = new File(journalFile.getPath() + ".tmp");
+            try (FileOutputStream fileOut = new FileOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(fileOut)) {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.writeUTF(recordingPath);
+                out.writeInt(sampleRate);
+                out.writeByte(channelCount);
+                out.writeByte(state);
+                out.writeLong(durableBytes);
+                out.writeLong(durableFrames);
+                out.flush();
+                fileOut.getFD().sync();
+            }
+            if (!temp.renameTo(journalFile)) {
+                throw new IOException("Failed to replace " + journalFile.getName());
+            }
+        }
+
+        static Checkpoint read(File journalFile) throws IOException {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(journalFile))) {
+                if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                    throw new IOException("Not a recording journal: " + journalFile.getName());
+                }
+                return new Checkpoint(in.readUTF(), in.readInt(), in.readByte(), in.readByte(),
+                        in.readLong(), in.readLong());
+            }
+        }
+    }
+
+    /**
+     * Journal of one recording. Called on the recorder's dispatch thread like the encoder feeding it,
+     * the fsync on each checkpoint is absorbed by the capture ring.
+     */
+    public static class Session implements EncodedFrameSink {
+        private final File recording;
+        private final File journalFile;
+        private final File framesFile;
+        private final byte[] header = new byte[Adts.HEADER_SIZE];
+        private byte[] frameBuffer = new byte[1024];
+        private FileOutputStream framesOut;
+        private int sampleRate;
+        private int channelCount;
+        private int sampleRateIndex;
+        private long writtenBytes = 0;
+        private long writtenFrames = 0;
+        private long lastCheckpointUs = 0;
+
+        Session(File recording, File journalFile, File framesFile) {
+            this.recording = recording;
+            this.journalFile = journalFile;
+            this.framesFile = framesFile;
+        }
+
+        @Override
+        public void onStart(int sampleRate, int channelCount) throws IOException {
+            sampleRateIndex = Adts.sampleRateIndex(sampleRate);
+            if (sampleRateIndex < 0) {
+                throw new IOException("Sample rate not supported by ADTS: " + sampleRate);
+            }
+            this.sampleRate = sampleRate;
+            this.channelCount = channelCount;
+
+            File directory = journalFile.getParentFile();
+            if (directory != null && !directory.exists() && !directory.mkdirs()) {
+                throw new IOException("Failed to create " + directory.getPath());
+            }
+
+            framesOut = new FileOutputStream(framesFile);
+            //the journal only exists once there is something to recover it from
+            checkpoint(STATE_RECORDING);
+        }
+
+        @Override
+        public void onFrame(ByteBuffer frame, long presentationTimeUs) throws IOException {
+            int size = frame.remaining();
+            if (size > frameBuffer.length) {
+                frameBuffer = new byte[size];
+            }
+            frame.get(frameBuffer, 0, size);
+
+            //unbuffered, what was written survives a process kill even before the next fsync
+            Adts.writeHeader(header, sampleRateIndex, channelCount, size);
+            framesOut.write(header);
+            framesOut.write(frameBuffer, 0, size);
+            writtenBytes += Adts.HEADER_SIZE + size;
+            writtenFrames++;
+
+            if (presentationTimeUs - lastCheckpointUs >= CHECKPOINT_INTERVAL_US) {
+                lastCheckpointUs = presentationTimeUs;
+                checkpoint(STATE_RECORDING);
+            }
+        }
+
+        @Override
+        public void onStop() throws IOException {
+            if (framesOut == null) {
+                return;
+            }
+            try {
+                checkpoint(STATE_STOPPED);
+            } finally {
+                framesOut.close();
+                framesOut = null;
+            }
+        }
+
+        private void checkpoint(int state) throws IOException {
+            framesOut.getFD().sync();
+            new Checkpoint(recording.getPath(), sampleRate, channelCount, state, writtenBytes, writtenFrames)
+                    .write(journalFile);
+        }
+
+        public File getRecording() {
+            return recording;
+        }
+
+        public long getWrittenFrames() {
+            return writtenFrames;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.devlomi.recordview;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timings and counters of the recording pipeline, filled in by {@link AudioRecorder}.
+ * <p>
+ * Phase timestamps are System.nanoTime() values of the current recording. The time-to-first-sample
+ * histogram accumulates over every recording made with the recorder. All times share the clock of
+ * SystemClock.uptimeMillis(), so touch times taken from a MotionEvent can be marked too.
+ */
+public class RecordingMetrics {
+
+    public interface Listener {
+        // Called from AudioRecorder.stop(), the metrics are reset right after it returns
+        void onRecordingMetrics(RecordingMetrics metrics);
+    }
+
+    public enum Phase {
+        TOUCH_DOWN,
+        ACTION_DOWN,
+        START_REQUESTED,
+        CAPTURE_STARTED,
+        SINKS_READY,
+        FIRST_SAMPLE,
+        STOP_REQUESTED,
+        STOPPED
+    }
+
+    //upper bounds of the histogram buckets, the last bucket takes everything above
+    private static final long[] FIRST_SAMPLE_BUCKETS_MS = {10, 20, 50, 100, 200, 500, 1000};
+
+    private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+    private final int[] firstSampleHistogram = new int[FIRST_SAMPLE_BUCKETS_MS.length + 1];
+    private boolean wasWarm;
+    private long recordedDurationMs;
+    private long overrunCount;
+    private long underrunCount;
+    private long failedSinkCount;
+    private long encodedBytes;
+    private long encoderBusyNanos;
+
+    public void mark(Phase phase) {
+        mark(phase, System.nanoTime());
+    }
+
+    public void mark(Phase phase, long nanos) {
+        phaseNanos.set(phase.ordinal(), nanos);
+    }
+
+    // Keeps the first mark of a phase, safe to call from the capture thread for every frame
+    void markOnce(Phase phase, long nanos) {
+        phaseNanos.compareAndSet(phase.ordinal(), 0, nanos);
+    }
+
+    // 0 when the phase was not reached in the current recording
+    public long getPhaseNanos(Phase phase) {
+        return phaseNanos.get(phase.ordinal());
+    }
+
+    // From the touch, or from start() when no touch was marked, to the first sample in the recording.
+    // 0 when audio from before the touch made it into the recording thanks to the pre-roll
+    public long getTimeToFirstSampleMs() {
+        long first = getPhaseNanos(Phase.FIRST_SAMPLE);
+        long origin = getPhaseNanos(Phase.TOUCH_DOWN);
+        if (origin == 0) {
+            origin = getPhaseNanos(Phase.START_REQUESTED);
+        }
+        if (first == 0 || origin == 0) {
+            return -1;
+        }
+        return Math.max(0, (first - origin) / 1_000_000L);
+    }
+
+    public synchronized int[] getFirstSampleHistogram() {
+        return firstSampleHistogram.clone();
+    }
+
+    public boolean wasWarm() {
+        return wasWarm;
+    }
+
+    public long getRecordedDurationMs() {
+        return recordedDurationMs;
+    }
+
+    // Frames dropped because the ring was full
+    public long getOverrunCount() {
+        return overrunCount;
+    }
+
+    public long getUnderrunCount() {
+        return underrunCount;
+    }
+
+    public long getFailedSinkCount() {
+        return failedSinkCount;
+    }
+
+    public long getEncodedBytes() {
+        return encodedBytes;
+    }
+
+    public long getEncoderBusyNanos() {
+        return encoderBusyNanos;
+    }
+
+    // Seconds of audio encoded per second spent in the encoder, 0 when nothing was encoded
+    public double getEncoderRealtimeFactor() {
+        if (encoderBusyNanos <= 0) {
+            return 0;
+        }
+        return recordedDurationMs * 1_000_000.0 / encoderBusyNanos;
+    }
+
+    void setWarm(boolean wasWarm) {
+        this.wasWarm = wasWarm;
+    }
+
+    void setCounters(long recordedDurationMs, long overrunCount, long underrunCount, long failedSinkCount) {
+        this.recordedDurationMs = recordedDurationMs;
+        this.overrunCount = overrunCount;
+        this.underrunCount = underrunCount;
+        this.failedSinkCount = failedSinkCount;
+    }
+
+    void setEncoderStats(long encodedBytes, long encoderBusyNanos) {
+        this.encodedBytes = encodedBytes;
+        this.encoderBusyNanos = encoderBusyNanos;
+    }
+
+    // Adds the current recording to the histogram
+    synchronized void commit() {
+        long timeToFirstSample = getTimeToFirstSampleMs();
+        if (timeToFirstSample < 0) {
+            return;
+        }
+
+        int bucket = 0;
+        while (bucket < FIRST_SAMPLE_BUCKETS_MS.length && timeToFirstSample > FIRST_SAMPLE_BUCKETS_MS[bucket]) {
+            bucket++;
+        }
+        firstSampleHistogram[bucket]++;
+    }
+
+    // Clears the current recording, the histogram is kept
+    void reset() {
+        for (int i = 0; i < phaseNanos.length(); i++) {
+            phaseNanos.set(i, 0);
+        }
+        wasWarm = false;
+        recordedDurationMs = 0;
+        overrunCount = 0;
+        underrunCount = 0;
+        failedSinkCount = 0;
+        encodedBytes = 0;
+        encoderBusyNanos = 0;
+    }
+
+    // Phases are reported in ms relative to the first phase that was reached
+    public synchronized JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        try {
+            long origin = 0;
+            for (Phase phase : Phase.values()) {
+                long nanos = getPhaseNanos(phase);
+                if (nanos != 0 && (origin == 0 || nanos < origin)) {
+                    origin = nanos;
+                }
+            }
+
+            JSONObject phases = new JSONObject();
+            for (Phase phase : Phase.values()) {
+                long nanos = getPhaseNanos(phase);
+                if (nanos != 0) {
+                    phases.put(phase.name().toLowerCase(Locale.ROOT), (nanos - origin) / 1_000_000.0);
+                }
+            }
+            json.put("phases_ms", phases);
+
+            json.put("warm", wasWarm);
+            json.put("time_to_first_sample_ms", getTimeToFirstSampleMs());
+            json.put("recorded_duration_ms", recordedDurationMs);
+            json.put("overruns", overrunCount);
+            json.put("underruns", underrunCount);
+            json.put("failed_sinks", failedSinkCount);
+            json.put("encoded_bytes", encodedBytes);
+            json.put("encoder_busy_ms", encoderBusyNanos / 1_000_000.0);
+            json.put("encoder_realtime_factor", getEncoderRealtimeFactor());
+
+            JSONArray histogram = new JSONArray();
+            for (int i = 0; i < firstSampleHistogram.length; i++) {
+                JSONObject bucket = new JSONObject();
+                bucket.put("le_ms", i < FIRST_SAMPLE_BUCKETS_MS.length ? FIRST_SAMPLE_BUCKETS_MS[i] : -1);
+                bucket.put("count", firstSampleHistogram[i]);
+                histogram.put(bucket);
+            }
+            json.put("time_to_first_sample_histogram", histogram);
+        } catch (JSONException e) {
+            //only thrown for NaN or infinite numbers, which are never put
+            throw new IllegalStateException(e);
+        }
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return toJson().toString();
+    }
+}
@@ -0,0 +1,182 @@
+package com.devlomi.recordview;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Sits in front of other sinks and keeps silence out of the recording.
+ * <p>
+ * Silence before the first word is dropped except for a short lead-in, silence after the last
+ * word except for a short tail, and pauses longer than maxSilenceMs are shortened to maxSilenceMs.
+ * Speech itself is passed through untouched. Silent frames are held back until it is known whether
+ * speech follows them, in frame buffers that are only allocated the first time they are needed.
+ * <p>
+ * A recording in which no speech is heard is written whole: everything before the first word is
+ * held, and if none comes within {@link #MAX_LEADING_SILENCE_MS} the detector evidently can't
+ * hear the user, so the held audio is written out and trimming stops for that recording.
+ * <p>
+ * Downstream encoders take their timestamps from the samples they get, so dropped frames simply
+ * make the file shorter.
+ */
+public class SilenceTrimmer implements PcmSink {
+    private static final int LEAD_MS = 100;
+    private static final int TAIL_MS = 100;
+    //bounds the memory held before the first word, 30s of 16 kHz mono is under 1 MB
+    static final int MAX_LEADING_SILENCE_MS = 30_000;
+
+    private final PcmSink[] downstream;
+    private final VoiceActivityDetector detector = new VoiceActivityDetector();
+    private final int frameSize;
+    private final int maxSilenceMs;
+    //oldest first, grown up to maxLeadingFrames before the first word, then up to maxSilenceFrames
+    private short[][] heldFrames;
+    private int[] heldLengths;
+    private int heldCount = 0;
+    private int leadFrames;
+    private int tailFrames;
+    private int maxSilenceFrames;
+    private int maxLeadingFrames;
+    private boolean hasSpeech = false;
+    private boolean isTrimming = true;
+    //written by the dispatch thread, read by the UI
+    private volatile long forwardedSamples = 0;
+    private int channelCount = 1;
+
+    public SilenceTrimmer(int frameSize, int maxSilenceMs, PcmSink... downstream) {
+        this.frameSize = frameSize;
+        this.maxSilenceMs = maxSilenceMs;
+        this.downstream = downstream;
+    }
+
+    @Override
+    public void onStart(int sampleRate, int channelCount) throws IOException {
+        this.channelCount = channelCount;
+        int frameMs = Math.max(1, frameSize * 1000 / (sampleRate * channelCount));
+        leadFrames = Math.max(1, LEAD_MS / frameMs);
+        tailFrames = Math.max(1, TAIL_MS / frameMs);
+        maxSilenceFrames = Math.max(leadFrames, maxSilenceMs / frameMs);
+        maxLeadingFrames = Math.max(maxSilenceFrames, MAX_LEADING_SILENCE_MS / frameMs);
+
+        if (heldFrames == null) {
+            heldFrames = new short[maxSilenceFrames][];
+            heldLengths = new int[maxSilenceFrames];
+        }
+        heldCount = 0;
+        hasSpeech = false;
+        isTrimming = true;
+        forwardedSamples = 0;
+        detector.reset();
+
+        for (PcmSink sink : downstream) {
+            sink.onStart(sampleRate, channelCount);
+        }
+    }
+
+    @Override
+    public void onPcm(short[] buffer, int length) throws IOException {
+        for (int offset = 0; offset < length; offset += frameSize) {
+            onFrame(buffer, offset, Math.min(frameSize, length - offset));
+        }
+    }
+
+    private void onFrame(short[] buffer, int offset, int length) throws IOException {
+        short[] frame = buffer;
+        if (offset != 0) {
+            //only when callers hand us more than a frame at once
+            frame = new short[length];
+            System.arraycopy(buffer, offset, frame, 0, length);
+        }
+
+        if (!isTrimming) {
+            forward(frame, length);
+            return;
+        }
+
+        if (detector.isSpeech(frame, length)) {
+            //a pause is kept up to maxSilenceMs, before the first word only the lead-in
+            int keep = hasSpeech ? heldCount : Math.min(heldCount, leadFrames);
+            forwardHeld(heldCount - keep, keep);
+            heldCount = 0;
+
+            hasSpeech = true;
+            forward(frame, length);
+        } else {
+            hold(frame, length);
+        }
+    }
+
+    private void hold(short[] frame, int length) throws IOException {
+        if (hasSpeech && heldCount == maxSilenceFrames) {
+            //the pause is already as long as we keep it, drop the rest
+            return;
+        }
+        if (!hasSpeech && heldCount == maxLeadingFrames) {
+            //no word in all this time, keep the recording as it is
+            forwardHeld(0, heldCount);
+            heldCount = 0;
+            isTrimming = false;
+            forward(frame, length);
+            return;
+        }
+
+        if (heldCount == heldFrames.length) {
+            int capacity = Math.min(heldFrames.length * 2, maxLeadingFrames);
+            heldFrames = Arrays.copyOf(heldFrames, capacity);
+            heldLengths = Arrays.copyOf(heldLengths, capacity);
+        }
+        if (heldFrames[heldCount] == null) {
+            heldFrames[heldCount] = new short[frameSize];
+        }
+        System.arraycopy(frame, 0, heldFrames[heldCount], 0, length);
+        heldLengths[heldCount] = length;
+        heldCount++;
+    }
+
+    // Forwards count held frames starting at the given position from the oldest
+    private void forwardHeld(int skip, int count) throws IOException {
+        for (int i = skip; i < skip + count; i++) {
+            forward(heldFrames[i], heldLengths[i]);
+        }
+    }
+
+    private void forward(short[] frame, int length) throws IOException {
+        forwardedSamples += length;
+        for (PcmSink sink : downstream) {
+            sink.onPcm(frame, length);
+        }
+    }
+
+    @Override
+    public void onStop() throws IOException {
+        try {
+            if (hasSpeech) {
+                forwardHeld(0, Math.min(heldCount, tailFrames));
+            } else {
+                //no speech at all, the recording is kept whole
+                forwardHeld(0, heldCount);
+            }
+        } finally {
+            heldCount = 0;
+            IOException failure = null;
+            for (PcmSink sink : downstream) {
+                try {
+                    sink.onStop();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    // Samples that made it into the recording, less than what was captured when silence was trimmed
+    public long getForwardedSamples() {
+        return forwardedSamples;
+    }
+
+    public long getForwardedDurationMs(int sampleRate) {
+        return forwardedSamples * 1000 / ((long) sampleRate * channelCount);
+    }
+}
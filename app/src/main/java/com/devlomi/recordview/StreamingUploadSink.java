@@ -0,0 +1,246 @@
+package com.devlomi.recordview;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uploads a recording while it is still being recorded.
+ * <p>
+ * Encoded frames are wrapped in ADTS headers and cut into chunks of about chunkDurationUs. Sealed
+ * chunks are queued for an upload thread, so the dispatch thread never waits for the network,
+ * and are sent in order through a {@link ChunkTransport}. When the recording stops only the last
+ * chunk is left to send.
+ * <p>
+ * Failed sends are retried with exponential backoff, reopening the upload every time so the
+ * server can say where to resume. Chunks are kept in memory until the server has them, a few KB
+ * per second at speech bitrates. Once the upload gives up, the queued chunks are dropped,
+ * {@link Listener#onFailed(String, IOException)} is called and {@link #onFrame(ByteBuffer, long)}
+ * throws, so the encoder stops handing this sink frames.
+ */
+public class StreamingUploadSink implements EncodedFrameSink {
+    public static final long DEFAULT_CHUNK_DURATION_US = 1_000_000;
+    static final int MAX_ATTEMPTS = 8;
+    private static final long INITIAL_BACKOFF_MS = 250;
+    private static final long MAX_BACKOFF_MS = 8_000;
+
+    /**
+     * Called on the upload thread.
+     */
+    public interface Listener {
+        void onChunkUploaded(AudioChunk chunk);
+
+        void onRetry(AudioChunk chunk, int attempt, IOException e);
+
+        void onComplete(String uploadId, int chunkCount);
+
+        void onFailed(String uploadId, IOException e);
+    }
+
+    private final ChunkTransport transport;
+    private final String uploadId;
+    private final long chunkDurationUs;
+    private final long initialBackoffMs;
+    private final LinkedBlockingQueue<AudioChunk> queue = new LinkedBlockingQueue<>();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final byte[] adtsHeader = new byte[Adts.HEADER_SIZE];
+    private volatile Listener listener;
+    //frames of the chunk being filled, dispatch thread only
+    private byte[] pending = new byte[4096];
+    private int pendingLength = 0;
+    private long chunkStartUs = -1;
+    private long lastFrameUs = 0;
+    private long frameDurationUs;
+    private int sampleRateIndex;
+    private int channelCount;
+    private int nextSequence = 0;
+    private Thread uploadThread;
+    private volatile boolean isCancelled = false;
+    private volatile IOException failure;
+
+    public StreamingUploadSink(ChunkTransport transport, String uploadId) {
+        this(transport, uploadId, DEFAULT_CHUNK_DURATION_US, INITIAL_BACKOFF_MS);
+    }
+
+    StreamingUploadSink(ChunkTransport transport, String uploadId, long chunkDurationUs, long initialBackoffMs) {
+        this.transport = transport;
+        this.uploadId = uploadId;
+        this.chunkDurationUs = chunkDurationUs;
+        this.initialBackoffMs = initialBackoffMs;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void onStart(int sampleRate, int channelCount) throws IOException {
+        if (uploadThread != null) {
+            throw new IOException("Upload " + uploadId + " was already started, use one sink per recording");
+        }
+
+        sampleRateIndex = Adts.sampleRateIndex(sampleRate);
+        if (sampleRateIndex < 0) {
+            throw new IOException("Sample rate not supported by ADTS: " + sampleRate);
+        }
+        this.channelCount = channelCount;
+        frameDurationUs = Adts.SAMPLES_PER_FRAME * 1_000_000L / sampleRate;
+
+        uploadThread = new Thread(this::uploadLoop, "StreamingUploadSink-upload");
+        uploadThread.start();
+    }
+
+    @Override
+    public void onFrame(ByteBuffer frame, long presentationTimeUs) throws IOException {
+        IOException failed = failure;
+        if (failed != null) {
+            throw new IOException("Upload " + uploadId + " gave up", failed);
+        }
+        if (isCancelled) {
+            return;
+        }
+
+        if (chunkStartUs < 0) {
+            chunkStartUs = presentationTimeUs;
+        } else if (presentationTimeUs - chunkStartUs >= chunkDurationUs) {
+            //chunks end on frame boundaries so each of them can be decoded alone
+            seal(presentationTimeUs, false);
+            chunkStartUs = presentationTimeUs;
+        }
+
+        int size = frame.remaining();
+        ensureCapacity(pendingLength + Adts.HEADER_SIZE + size);
+        Adts.writeHeader(adtsHeader, sampleRateIndex, channelCount, size);
+        System.arraycopy(adtsHeader, 0, pending, pendingLength, Adts.HEADER_SIZE);
+        frame.get(pending, pendingLength + Adts.HEADER_SIZE, size);
+        pendingLength += Adts.HEADER_SIZE + size;
+        lastFrameUs = presentationTimeUs;
+    }
+
+    @Override
+    public void onStop() {
+        if (uploadThread == null || failure != null || isCancelled) {
+            return;
+        }
+        if (chunkStartUs < 0) {
+            chunkStartUs = 0;
+        }
+        //always sent, even empty, so the server knows the recording is over
+        seal(pendingLength > 0 ? lastFrameUs + frameDurationUs : chunkStartUs, true);
+    }
+
+    private void seal(long endUs, boolean last) {
+        byte[] data = Arrays.copyOf(pending, pendingLength);
+        queue.add(new AudioChunk(uploadId, nextSequence++, chunkStartUs, endUs - chunkStartUs, data, last));
+        pendingLength = 0;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(capacity, pending.length * 2));
+        }
+    }
+
+    private void uploadLoop() {
+        AudioChunk chunk = null;
+        boolean needsOpen = true;
+        int serverNext = 0;
+        int attempt = 0;
+
+        try {
+            while (!isCancelled) {
+                if (chunk == null) {
+                    chunk = queue.take();
+                }
+
+                try {
+                    if (needsOpen) {
+                        serverNext = transport.open(uploadId);
+                        needsOpen = false;
+                        if (serverNext < chunk.getSequence()) {
+                            //acknowledged chunks are gone from memory, they cannot be sent again
+                            fail(new IOException("Server lost acknowledged chunks of " + uploadId
+                                    + ", expects " + serverNext + " but next is " + chunk.getSequence()));
+                            return;
+                        }
+                    }
+
+                    //otherwise the server stored it but the acknowledgement got lost
+                    if (chunk.getSequence() >= serverNext) {
+                        transport.send(chunk);
+                        serverNext = chunk.getSequence() + 1;
+                    }
+                } catch (IOException e) {
+                    if (++attempt >= MAX_ATTEMPTS) {
+                        fail(e);
+                        return;
+                    }
+                    Listener current = listener;
+                    if (current != null) {
+                        current.onRetry(chunk, attempt, e);
+                    }
+                    needsOpen = true;
+                    Thread.sleep(Math.min(initialBackoffMs << (attempt - 1), MAX_BACKOFF_MS));
+                    continue;
+                }
+
+                attempt = 0;
+                Listener current = listener;
+                if (current != null) {
+                    current.onChunkUploaded(chunk);
+                }
+                if (chunk.isLast()) {
+                    if (current != null) {
+                        current.onComplete(uploadId, chunk.getSequence() + 1);
+                    }
+                    return;
+                }
+                chunk = null;
+            }
+        } catch (InterruptedException e) {
+            //cancelled
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    private void fail(IOException e) {
+        failure = e;
+        //nothing will send them anymore, and onFrame refuses new ones from now on
+        queue.clear();
+        Listener current = listener;
+        if (current != null) {
+            current.onFailed(uploadId, e);
+        }
+    }
+
+    // Stops uploading, the server keeps what it already has and the upload can be resumed by id
+    public void cancel() {
+        isCancelled = true;
+        if (uploadThread != null) {
+            uploadThread.interrupt();
+        }
+    }
+
+    // Waits until every chunk is uploaded, the upload failed or it was cancelled
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    // Set when the upload gave up, null otherwise
+    public IOException getFailure() {
+        return failure;
+    }
+
+    // Sealed chunks waiting behind the one being uploaded
+    public int getQueuedChunkCount() {
+        return queue.size();
+    }
+}
@@ -0,0 +1,101 @@
+package com.devlomi.recordview;
+
+/**
+ * Classifies PCM frames as speech or silence from their energy and zero-crossing rate.
+ * <p>
+ * The noise floor adapts to the room: it follows quiet frames down quickly and loud ones up slowly.
+ * A frame is speech when its RMS is well above that floor, there is no fixed level speech has to
+ * reach, so soft speech in a quiet room is heard. Frames that are only moderately loud but cross
+ * zero very often (hiss, fan noise) are not. The floor creeps up even during speech, so a steady
+ * noise first taken for speech is learned within a second or two, while the pauses of real speech
+ * pull it back down. After speech, a short hangover keeps word endings and soft consonants from
+ * being cut.
+ */
+public class VoiceActivityDetector {
+    //speech must be this many times louder than the noise floor
+    private static final double ENERGY_RATIO = 3.0;
+    //~ -60 dBFS, the noise floor never goes below this
+    private static final double MIN_NOISE_RMS = 33;
+    private static final double NOISE_RISE = 0.01;
+    private static final double NOISE_FALL = 0.5;
+    private static final double NOISE_RISE_DURING_SPEECH = 0.002;
+    //zero crossings per sample above which a frame sounds like noise rather than voice
+    private static final double MAX_SPEECH_ZCR = 0.35;
+    //noisy frames still count as speech when they are this much louder than the threshold
+    private static final double NOISY_SPEECH_RATIO = 2.0;
+    private static final int DEFAULT_HANGOVER_FRAMES = 8;
+
+    private final int hangoverFrames;
+    private double noiseRms = MIN_NOISE_RMS;
+    private int hangover = 0;
+    private double lastRms = 0;
+    private double lastZeroCrossingRate = 0;
+
+    public VoiceActivityDetector() {
+        this(DEFAULT_HANGOVER_FRAMES);
+    }
+
+    public VoiceActivityDetector(int hangoverFrames) {
+        this.hangoverFrames = hangoverFrames;
+    }
+
+    public boolean isSpeech(short[] buffer, int length) {
+        if (length <= 0) {
+            return hangover > 0;
+        }
+
+        long sumOfSquares = 0;
+        int zeroCrossings = 0;
+        short previous = buffer[0];
+        for (int i = 0; i < length; i++) {
+            short sample = buffer[i];
+            sumOfSquares += sample * sample;
+            if ((sample >= 0) != (previous >= 0)) {
+                zeroCrossings++;
+            }
+            previous = sample;
+        }
+
+        double rms = Math.sqrt(sumOfSquares / (double) length);
+        double zeroCrossingRate = zeroCrossings / (double) length;
+        lastRms = rms;
+        lastZeroCrossingRate = zeroCrossingRate;
+
+        double threshold = noiseRms * ENERGY_RATIO;
+        boolean loud = rms > threshold;
+        boolean voiced = zeroCrossingRate <= MAX_SPEECH_ZCR || rms > threshold * NOISY_SPEECH_RATIO;
+        boolean speech = loud && voiced;
+
+        double rate = rms < noiseRms ? NOISE_FALL : speech ? NOISE_RISE_DURING_SPEECH : NOISE_RISE;
+        noiseRms = Math.max(MIN_NOISE_RMS, noiseRms + (rms - noiseRms) * rate);
+
+        if (speech) {
+            hangover = hangoverFrames;
+            return true;
+        }
+        if (hangover > 0) {
+            hangover--;
+            return true;
+        }
+        return false;
+    }
+
+    public void reset() {
+        noiseRms = MIN_NOISE_RMS;
+        hangover = 0;
+        lastRms = 0;
+        lastZeroCrossingRate = 0;
+    }
+
+    public double getNoiseRms() {
+        return noiseRms;
+    }
+
+    public double getLastRms() {
+        return lastRms;
+    }
+
+    public double getLastZeroCrossingRate() {
+        return lastZeroCrossingRate;
+    }
+}
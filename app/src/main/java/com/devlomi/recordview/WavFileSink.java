@@ -0,0 +1,105 @@
+package com.devlomi.recordview;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+//writes PCM frames into a canonical 44 bytes header WAV file, sizes are patched on stop
+public class WavFileSink implements PcmSink {
+    private static final int HEADER_SIZE = 44;
+
+    private final File file;
+    private RandomAccessFile output;
+    private byte[] byteBuffer = new byte[0];
+    private int sampleRate;
+    private int channelCount;
+    private long dataSize = 0;
+
+    public WavFileSink(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public void onStart(int sampleRate, int channelCount) throws IOException {
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        dataSize = 0;
+        output = new RandomAccessFile(file, "rw");
+        output.setLength(0);
+        writeHeader();
+    }
+
+    @Override
+    public void onPcm(short[] buffer, int length) throws IOException {
+        if (byteBuffer.length < length * 2) {
+            byteBuffer = new byte[length * 2];
+        }
+
+        //WAV is little endian
+        for (int i = 0; i < length; i++) {
+            byteBuffer[i * 2] = (byte) buffer[i];
+            byteBuffer[i * 2 + 1] = (byte) (buffer[i] >> 8);
+        }
+
+        output.write(byteBuffer, 0, length * 2);
+        dataSize += length * 2;
+    }
+
+    @Override
+    public void onStop() throws IOException {
+        if (output == null) {
+            return;
+        }
+
+        try {
+            output.seek(0);
+            writeHeader();
+        } finally {
+            output.close();
+            output = null;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private void writeHeader() throws IOException {
+        int byteRate = sampleRate * channelCount * 2;
+        byte[] header = new byte[HEADER_SIZE];
+
+        writeString(header, 0, "RIFF");
+        writeInt(header, 4, (int) (dataSize + HEADER_SIZE - 8));
+        writeString(header, 8, "WAVE");
+        writeString(header, 12, "fmt ");
+        writeInt(header, 16, 16);
+        writeShort(header, 20, 1); //PCM
+        writeShort(header, 22, channelCount);
+        writeInt(header, 24, sampleRate);
+        writeInt(header, 28, byteRate);
+        writeShort(header, 32, channelCount * 2);
+        writeShort(header, 34, 16);
+        writeString(header, 36, "data");
+        writeInt(header, 40, (int) dataSize);
+
+        output.write(header);
+    }
+
+    private static void writeString(byte[] header, int offset, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            header[offset + i] = (byte) value.charAt(i);
+        }
+    }
+
+    private static void writeInt(byte[] header, int offset, int value) {
+        header[offset] = (byte) value;
+        header[offset + 1] = (byte) (value >> 8);
+        header[offset + 2] = (byte) (value >> 16);
+        header[offset + 3] = (byte) (value >> 24);
+    }
+
+    private static void writeShort(byte[] header, int offset, int value) {
+        header[offset] = (byte) value;
+        header[offset + 1] = (byte) (value >> 8);
+    }
+}
@@ -0,0 +1,206 @@
+package com.devlomi.recordview;
+
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Two tier cache for waveform summaries shown in the message list.
+ * <p>
+ * Both tiers are keyed by audio path and the last modified time the caller knows (see
+ * {@link Message#getAudioModifiedAt()}), so a page loaded again finds the summaries of its
+ * rows and a changed file never gets a stale one. The memory tier is an LRU bounded by the
+ * number of bytes the summaries take. The optional disk tier is bounded by maxDiskBytes, least
+ * recently used files first, and must only be used off the main thread (the
+ * {@link WaveformExtractor} does that).
+ */
+public class WaveformCache {
+    //rough cost of the array header and the LRU entry around every summary
+    private static final int ENTRY_OVERHEAD_BYTES = 48;
+    private static final String DISK_EXTENSION = ".wave";
+
+    private final LruCache<String, byte[]> memoryCache;
+    private final File diskDir;
+    private final long maxDiskBytes;
+    private final AtomicInteger diskHitCount = new AtomicInteger();
+    private final AtomicInteger diskMissCount = new AtomicInteger();
+    private final AtomicInteger diskEvictionCount = new AtomicInteger();
+
+    /**
+     * @param maxBytes     memory budget for summaries
+     * @param diskDir      directory of the disk tier, null to keep summaries in memory only
+     * @param maxDiskBytes budget of the disk tier
+     */
+    public WaveformCache(int maxBytes, File diskDir, long maxDiskBytes) {
+        memoryCache = new LruCache<String, byte[]>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, byte[] value) {
+                return value.length + ENTRY_OVERHEAD_BYTES;
+            }
+        };
+
+        this.diskDir = diskDir;
+        this.maxDiskBytes = maxDiskBytes;
+        if (diskDir != null && !diskDir.exists()) {
+            diskDir.mkdirs();
+        }
+    }
+
+    public byte[] get(File audioFile, long modifiedAt) {
+        return memoryCache.get(memoryKey(audioFile, modifiedAt));
+    }
+
+    public void put(File audioFile, long modifiedAt, byte[] waveform) {
+        memoryCache.put(memoryKey(audioFile, modifiedAt), waveform);
+    }
+
+    public void remove(File audioFile, long modifiedAt) {
+        memoryCache.remove(memoryKey(audioFile, modifiedAt));
+    }
+
+    private static String memoryKey(File audioFile, long modifiedAt) {
+        return audioFile.getPath() + ":" + modifiedAt;
+    }
+
+    // Reads a summary from the disk tier, call it off the main thread
+    public byte[] getFromDisk(File audioFile, long modifiedAt) {
+        if (diskDir == null) {
+            return null;
+        }
+
+        File file = diskFileFor(audioFile, modifiedAt);
+        byte[] waveform = WaveformStore.readSummaryFile(file);
+        if (waveform != null) {
+            diskHitCount.incrementAndGet();
+            //the modification time orders the files for eviction
+            file.setLastModified(System.currentTimeMillis());
+        } else {
+            diskMissCount.incrementAndGet();
+        }
+        return waveform;
+    }
+
+    // Writes a summary to the disk tier and trims it to its budget, call it off the main thread
+    public void putToDisk(File audioFile, long modifiedAt, byte[] waveform) {
+        if (diskDir == null) {
+            return;
+        }
+
+        try {
+            WaveformStore.writeSummaryFile(diskFileFor(audioFile, modifiedAt), waveform);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        trimDisk();
+    }
+
+    //summaries are tiny, listing the directory costs less than the decode that led here
+    private void trimDisk() {
+        File[] files = diskDir.listFiles((dir, name) -> name.endsWith(DISK_EXTENSION));
+        if (files == null) {
+            return;
+        }
+
+        long size = 0;
+        long[] lastModified = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            size += files[i].length();
+            lastModified[i] = files[i].lastModified();
+        }
+        if (size <= maxDiskBytes) {
+            return;
+        }
+
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(lastModified[a], lastModified[b]));
+        for (int i = 0; i < order.length && size > maxDiskBytes; i++) {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+                diskEvictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    //a new modification time gives a new name, so stale summaries are never read back
+    private File diskFileFor(File audioFile, long modifiedAt) {
+        return new File(diskDir, sha1(audioFile.getAbsolutePath()) + "-" + modifiedAt + DISK_EXTENSION);
+    }
+
+    private static String sha1(String value) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            //every Java platform has to provide SHA-1
+            throw new IllegalStateException(e);
+        }
+
+        byte[] hash = digest.digest(value.getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    public void trimToSize(int maxBytes) {
+        memoryCache.trimToSize(maxBytes);
+    }
+
+    public void evictAll() {
+        memoryCache.evictAll();
+    }
+
+    public int getSizeBytes() {
+        return memoryCache.size();
+    }
+
+    public int getMaxSizeBytes() {
+        return memoryCache.maxSize();
+    }
+
+    public int getHitCount() {
+        return memoryCache.hitCount();
+    }
+
+    public int getMissCount() {
+        return memoryCache.missCount();
+    }
+
+    public int getEvictionCount() {
+        return memoryCache.evictionCount();
+    }
+
+    public int getDiskHitCount() {
+        return diskHitCount.get();
+    }
+
+    public int getDiskMissCount() {
+        return diskMissCount.get();
+    }
+
+    public int getDiskEvictionCount() {
+        return diskEvictionCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "WaveformCache{size=" + getSizeBytes() + "/" + getMaxSizeBytes()
+                + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount()
+                + ", diskHits=" + getDiskHitCount() + ", diskMisses=" + getDiskMissCount()
+                + ", diskEvictions=" + getDiskEvictionCount() + "}";
+    }
+}
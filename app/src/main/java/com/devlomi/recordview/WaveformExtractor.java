@@ -0,0 +1,302 @@
+package com.devlomi.recordview;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Computes waveform summaries for audio files that don't have one, e.g. files recorded
+ * before summaries existed or received from other clients.
+ * <p>
+ * Files are decoded on a single background thread and reduced into a {@link WaveformSummary}
+ * while decoding, so memory does not grow with the length of the file. Results are kept in the
+ * disk tier of the {@link WaveformCache}, and callbacks are delivered on the main thread. A summary
+ * that the {@link RecordingFinalizer} stored next to the file is read instead of decoding it.
+ */
+public class WaveformExtractor {
+    private static final String TAG = "WaveformExtractor";
+    private static final long CODEC_TIMEOUT_US = 10_000;
+    private static final int WAV_READ_SAMPLES = 4096;
+
+    public interface Callback {
+        void onWaveformReady(File audioFile, byte[] waveform);
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "WaveformExtractor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final WaveformCache waveformCache;
+    //callbacks waiting for a file that is already being decoded
+    private final Map<String, List<Callback>> pending = new HashMap<>();
+    //files that could not be decoded, not tried again until they change
+    private final Set<String> failed = new HashSet<>();
+
+    public WaveformExtractor(WaveformCache waveformCache) {
+        this.waveformCache = waveformCache;
+    }
+
+    /**
+     * Must be called on the main thread, the callback is not called if the file can't be decoded.
+     *
+     * @param modifiedAt the file's last modified time as known by the caller, it is not read here
+     */
+    public void extract(File audioFile, long modifiedAt, Callback callback) {
+        String key = pendingKey(audioFile, modifiedAt);
+        if (failed.contains(key)) {
+            return;
+        }
+
+        List<Callback> callbacks = pending.get(key);
+        if (callbacks != null) {
+            callbacks.add(callback);
+            return;
+        }
+
+        callbacks = new ArrayList<>();
+        callbacks.add(callback);
+        pending.put(key, callbacks);
+
+        executor.execute(() -> {
+            byte[] waveform = null;
+            try {
+                waveform = extractBlocking(audioFile, modifiedAt);
+            } catch (IOException | IllegalStateException e) {
+                Log.e(TAG, "Failed to extract waveform of " + audioFile.getName() + ": " + e.getMessage());
+            }
+
+            final byte[] result = waveform;
+            mainHandler.post(() -> {
+                List<Callback> waiting = pending.remove(key);
+                if (waiting == null) {
+                    return;
+                }
+                if (result == null) {
+                    failed.add(key);
+                    return;
+                }
+                for (Callback waitingCallback : waiting) {
+                    waitingCallback.onWaveformReady(audioFile, result);
+                }
+            });
+        });
+    }
+
+    // Decodes the file on the calling thread, never call this on the main thread
+    public byte[] extractBlocking(File audioFile, long modifiedAt) throws IOException {
+        //our own recordings come with the summary made while recording them
+        byte[] stored = WaveformStore.read(audioFile, modifiedAt);
+        if (stored != null) {
+            return stored;
+        }
+
+        byte[] cached = waveformCache.getFromDisk(audioFile, modifiedAt);
+        if (cached != null) {
+            return cached;
+        }
+
+        WaveformSummary summary = new WaveformSummary();
+        if (audioFile.getName().toLowerCase().endsWith(".wav")) {
+            readWav(audioFile, summary);
+        } else {
+            decode(audioFile, summary);
+        }
+        summary.onStop();
+
+        byte[] waveform = summary.toByteArray();
+        waveformCache.putToDisk(audioFile, modifiedAt, waveform);
+        return waveform;
+    }
+
+    public void release() {
+        executor.shutdownNow();
+        mainHandler.removeCallbacksAndMessages(null);
+        pending.clear();
+        failed.clear();
+    }
+
+    private static String pendingKey(File audioFile, long modifiedAt) {
+        return audioFile.getPath() + ":" + modifiedAt;
+    }
+
+    //streams 16 bit PCM WAV files, the only format we can read without a codec
+    static void readWav(File file, WaveformSummary summary) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (readTag(in) != 0x46464952 /*RIFF*/) {
+                throw new IOException("Not a RIFF file");
+            }
+            in.readInt(); //riff size
+            if (readTag(in) != 0x45564157 /*WAVE*/) {
+                throw new IOException("Not a WAVE file");
+            }
+
+            int bitsPerSample = 16;
+            while (true) {
+                int tag = readTag(in);
+                long chunkSize = Integer.reverseBytes(in.readInt()) & 0xFFFFFFFFL;
+
+                if (tag == 0x20746D66 /*fmt */) {
+                    if (chunkSize < 16) {
+                        throw new IOException("Truncated fmt chunk of " + chunkSize + " bytes");
+                    }
+                    byte[] fmt = new byte[(int) chunkSize];
+                    in.readFully(fmt);
+                    bitsPerSample = (fmt[14] & 0xFF) | ((fmt[15] & 0xFF) << 8);
+                    //chunks start on even offsets, an odd sized one is followed by a pad byte
+                    skipFully(in, chunkSize & 1);
+                } else if (tag == 0x61746164 /*data*/) {
+                    if (bitsPerSample != 16) {
+                        throw new IOException("Unsupported WAV sample size " + bitsPerSample);
+                    }
+                    readPcm(in, chunkSize, summary);
+                    return;
+                } else {
+                    skipFully(in, chunkSize + (chunkSize & 1));
+                }
+            }
+        }
+    }
+
+    private static void readPcm(DataInputStream in, long dataSize, WaveformSummary summary) throws IOException {
+        short[] samples = new short[WAV_READ_SAMPLES];
+        long remaining = dataSize / 2;
+
+        while (remaining > 0) {
+            int count = (int) Math.min(remaining, samples.length);
+            int read = 0;
+            try {
+                for (; read < count; read++) {
+                    samples[read] = Short.reverseBytes(in.readShort());
+                }
+            } catch (EOFException e) {
+                //files from an interrupted recording may be shorter than their header says
+                summary.addSamples(samples, read);
+                return;
+            }
+            summary.addSamples(samples, read);
+            remaining -= read;
+        }
+    }
+
+    private static int readTag(DataInputStream in) throws IOException {
+        return Integer.reverseBytes(in.readInt());
+    }
+
+    private static void skipFully(DataInputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            count -= skipped;
+        }
+    }
+
+    private void decode(File file, WaveformSummary summary) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(file.getPath());
+
+            MediaFormat format = null;
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat trackFormat = extractor.getTrackFormat(i);
+                String mime = trackFormat.getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("audio/")) {
+                    extractor.selectTrack(i);
+                    format = trackFormat;
+                    break;
+                }
+            }
+            if (format == null) {
+                throw new IOException("No audio track in " + file.getName());
+            }
+
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            short[] samples = new short[0];
+            boolean inputDone = false;
+
+            while (true) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new IOException("Extraction cancelled");
+                }
+
+                if (!inputDone) {
+                    int inputIndex = codec.dequeueInputBuffer(CODEC_TIMEOUT_US);
+                    if (inputIndex >= 0) {
+                        ByteBuffer input = codec.getInputBuffer(inputIndex);
+                        int size = extractor.readSampleData(input, 0);
+                        if (size < 0) {
+                            codec.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            codec.queueInputBuffer(inputIndex, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+
+                int outputIndex = codec.dequeueOutputBuffer(info, CODEC_TIMEOUT_US);
+                if (outputIndex < 0) {
+                    continue;
+                }
+
+                ByteBuffer output = codec.getOutputBuffer(outputIndex);
+                int count = info.size / 2;
+                if (samples.length < count) {
+                    samples = new short[count];
+                }
+                output.position(info.offset);
+                output.limit(info.offset + info.size);
+                output.order(ByteOrder.nativeOrder()).asShortBuffer().get(samples, 0, count);
+                codec.releaseOutputBuffer(outputIndex, false);
+
+                summary.addSamples(samples, count);
+
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    return;
+                }
+            }
+        } finally {
+            if (codec != null) {
+                try {
+                    codec.stop();
+                } catch (IllegalStateException e) {
+                    Log.w(TAG, "Failed to stop decoder: " + e.getMessage());
+                }
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+}
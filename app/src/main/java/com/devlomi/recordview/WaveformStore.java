@@ -0,0 +1,70 @@
+package com.devlomi.recordview;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+//reads and writes the waveform summary kept next to each audio file as '<audio file>.wave'
+public class WaveformStore {
+    private static final String EXTENSION = ".wave";
+    private static final int MAGIC = 0x57415645; //"WAVE"
+    private static final int VERSION = 1;
+    private static final int MAX_BUCKETS = 4096;
+
+    private WaveformStore() {
+    }
+
+    public static File summaryFileFor(File audioFile) {
+        return new File(audioFile.getParentFile(), audioFile.getName() + EXTENSION);
+    }
+
+    public static void write(File audioFile, byte[] summary) throws IOException {
+        writeSummaryFile(summaryFileFor(audioFile), summary);
+    }
+
+    static void writeSummaryFile(File file, byte[] summary) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeShort(summary.length);
+            out.write(summary);
+        }
+    }
+
+    // Returns null if there is no summary for this version of the file or it can't be read
+    public static byte[] read(File audioFile, long modifiedAt) {
+        File file = summaryFileFor(audioFile);
+        //written after the audio was finalized, an older one belongs to audio that was replaced since
+        if (file.lastModified() < modifiedAt) {
+            return null;
+        }
+        return readSummaryFile(file);
+    }
+
+    static byte[] readSummaryFile(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                return null;
+            }
+
+            int length = in.readUnsignedShort();
+            if (length > MAX_BUCKETS) {
+                return null;
+            }
+
+            byte[] summary = new byte[length];
+            in.readFully(summary);
+            return summary;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
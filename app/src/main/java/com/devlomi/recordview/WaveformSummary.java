@@ -0,0 +1,113 @@
+package com.devlomi.recordview;
+
+/**
+ * Builds a fixed-size peak summary of a recording while it is being captured.
+ * <p>
+ * The length of the recording is unknown up front, so every bucket starts by covering one
+ * {@link AudioRecorder#FRAME_SIZE} worth of samples; whenever all buckets are used, neighbouring
+ * buckets are merged and each bucket covers twice as many samples from then on.
+ * Memory stays at {@code bucketCount} ints no matter how long the recording is.
+ */
+public class WaveformSummary implements PcmSink {
+    public static final int DEFAULT_BUCKET_COUNT = 64;
+
+    private final int[] peaks;
+    private int bucketCount = 0;
+    private int samplesPerBucket;
+    private int samplesInBucket = 0;
+    private int currentPeak = 0;
+
+    public WaveformSummary() {
+        this(DEFAULT_BUCKET_COUNT);
+    }
+
+    public WaveformSummary(int maxBuckets) {
+        if (maxBuckets < 2) {
+            throw new IllegalArgumentException("maxBuckets must be at least 2");
+        }
+        peaks = new int[maxBuckets];
+        samplesPerBucket = AudioRecorder.FRAME_SIZE;
+    }
+
+    @Override
+    public void onStart(int sampleRate, int channelCount) {
+        reset();
+    }
+
+    @Override
+    public void onPcm(short[] buffer, int length) {
+        addSamples(buffer, length);
+    }
+
+    @Override
+    public void onStop() {
+        //keep the partial last bucket, it is still audio the user recorded
+        if (samplesInBucket > 0) {
+            closeBucket();
+        }
+    }
+
+    public void reset() {
+        bucketCount = 0;
+        samplesPerBucket = AudioRecorder.FRAME_SIZE;
+        samplesInBucket = 0;
+        currentPeak = 0;
+    }
+
+    public void addSamples(short[] buffer, int length) {
+        for (int i = 0; i < length; i++) {
+            int value = Math.abs(buffer[i]);
+            if (value > currentPeak) {
+                currentPeak = value;
+            }
+
+            if (++samplesInBucket == samplesPerBucket) {
+                closeBucket();
+            }
+        }
+    }
+
+    private void closeBucket() {
+        if (bucketCount == peaks.length) {
+            mergeBuckets();
+        }
+
+        peaks[bucketCount++] = currentPeak;
+        currentPeak = 0;
+        samplesInBucket = 0;
+    }
+
+    private void mergeBuckets() {
+        int merged = bucketCount / 2;
+        for (int i = 0; i < merged; i++) {
+            peaks[i] = Math.max(peaks[i * 2], peaks[i * 2 + 1]);
+        }
+
+        //an odd trailing bucket is carried over as is
+        if (bucketCount % 2 != 0) {
+            peaks[merged++] = peaks[bucketCount - 1];
+        }
+
+        bucketCount = merged;
+        samplesPerBucket *= 2;
+    }
+
+    /**
+     * @return one unsigned byte (0-255) per bucket, read values back with {@code value & 0xFF}
+     */
+    public byte[] toByteArray() {
+        byte[] summary = new byte[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            summary[i] = (byte) (Math.min(peaks[i], Short.MAX_VALUE) >> 7);
+        }
+        return summary;
+    }
+
+    public int getBucketCount() {
+        return bucketCount;
+    }
+
+    public int getSamplesPerBucket() {
+        return samplesPerBucket;
+    }
+}
@@ -6,35 +6,108 @@ import android.graphics.Paint;
 import android.util.AttributeSet;
 import android.view.View;
 
+import java.util.Arrays;
+
+/**
+ * Scrolling bar waveform, newest amplitude on the right.
+ * <p>
+ * Amplitudes live in a circular buffer, so adding one is O(1) whatever the bar count, and all
+ * bars are drawn with a single drawLines() call from a preallocated points array.
+ */
 public class WaveformView extends View {
+    public static final int DEFAULT_BAR_COUNT = 100;
+
     private Paint paint;
-    private float[] amplitudes = new float[100];
+    private float[] amplitudes;
+    //x0, y0, x1, y1 of every bar
+    private float[] points;
+    //next slot to write, which is also the oldest amplitude
+    private int head = 0;
 
     public WaveformView(Context context, AttributeSet attrs) {
         super(context, attrs);
         paint = new Paint();
         paint.setColor(0xFF00FF00);
         paint.setStrokeWidth(5f);
+        setBarCount(DEFAULT_BAR_COUNT);
+    }
+
+    // Clears the waveform
+    public void setBarCount(int barCount) {
+        if (barCount <= 0) {
+            throw new IllegalArgumentException("barCount must be positive: " + barCount);
+        }
+
+        amplitudes = new float[barCount];
+        points = new float[barCount * 4];
+        head = 0;
+        invalidate();
     }
 
+    public int getBarCount() {
+        return amplitudes.length;
+    }
+
+    public void clear() {
+        Arrays.fill(amplitudes, 0f);
+        head = 0;
+        invalidate();
+    }
+
+    public void setBarColor(int color) {
+        paint.setColor(color);
+        invalidate();
+    }
+
+    // amplitude from 0 to 1
     public void updateWave(float amplitude) {
-        System.arraycopy(amplitudes, 1, amplitudes, 0, amplitudes.length - 1);
-        amplitudes[amplitudes.length - 1] = amplitude;
+        push(amplitude);
+        invalidate();
+    }
+
+    // Adds several amplitudes, e.g. everything captured since the last frame, with a single redraw
+    public void updateWaves(float[] newAmplitudes, int count) {
+        for (int i = Math.max(0, count - amplitudes.length); i < count; i++) {
+            push(newAmplitudes[i]);
+        }
         invalidate();
     }
 
+    // Replaces the waveform, only the last barCount amplitudes are shown
+    public void setWaves(float[] newAmplitudes, int count) {
+        Arrays.fill(amplitudes, 0f);
+        head = 0;
+        updateWaves(newAmplitudes, count);
+    }
+
+    private void push(float amplitude) {
+        amplitudes[head] = amplitude;
+        head = (head + 1) % amplitudes.length;
+    }
+
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
         float width = getWidth();
         float height = getHeight();
         float centerY = height / 2;
-        float spacing = width / (amplitudes.length + 1);
+        int barCount = amplitudes.length;
+        float spacing = width / (barCount + 1);
 
-        for (int i = 0; i < amplitudes.length; i++) {
+        int index = head;
+        for (int i = 0; i < barCount; i++) {
+            int point = i * 4;
             float x = i * spacing;
-            float y = centerY - amplitudes[i] * centerY;
-            canvas.drawLine(x, centerY, x, y, paint);
+            points[point] = x;
+            points[point + 1] = centerY;
+            points[point + 2] = x;
+            points[point + 3] = centerY - amplitudes[index] * centerY;
+
+            if (++index == barCount) {
+                index = 0;
+            }
         }
+
+        canvas.drawLines(points, 0, points.length, paint);
     }
 }
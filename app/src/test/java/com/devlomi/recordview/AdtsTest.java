@@ -0,0 +1,49 @@
+package com.devlomi.recordview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdtsTest {
+
+    @Test
+    public void writeHeader_encodesLcProfileRateChannelsAndLength() {
+        byte[] header = new byte[Adts.HEADER_SIZE];
+        Adts.writeHeader(header, Adts.sampleRateIndex(16000), 1, 100);
+
+        assertEquals((byte) 0xFF, header[0]);
+        assertEquals((byte) 0xF1, header[1]);
+        //profile LC, 16 kHz
+        assertEquals(0x60, header[2] & 0xFF);
+        //mono
+        assertEquals(1, (header[3] & 0xC0) >> 6);
+        assertEquals(107, Adts.frameLength(withPayload(header, 100), 0, 107));
+    }
+
+    @Test
+    public void sampleRateIndex_unsupportedRate() {
+        assertEquals(8, Adts.sampleRateIndex(16000));
+        assertEquals(-1, Adts.sampleRateIndex(15000));
+    }
+
+    @Test
+    public void frameLength_rejectsTornAndInvalidFrames() {
+        byte[] header = new byte[Adts.HEADER_SIZE];
+        Adts.writeHeader(header, 8, 1, 50);
+        byte[] frame = withPayload(header, 50);
+
+        //the payload is cut short
+        assertEquals(-1, Adts.frameLength(frame, 0, 40));
+        //not even a whole header
+        assertEquals(-1, Adts.frameLength(frame, 0, 5));
+
+        frame[0] = 0;
+        assertEquals(-1, Adts.frameLength(frame, 0, frame.length));
+    }
+
+    private static byte[] withPayload(byte[] header, int size) {
+        byte[] frame = new byte[header.length + size];
+        System.arraycopy(header, 0, frame, 0, header.length);
+        return frame;
+    }
+}
@@ -0,0 +1,129 @@
+package com.devlomi.recordview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AmplitudeTrackTest {
+
+    @Test
+    public void add_keepsEntriesInOrder() {
+        AmplitudeTrack track = new AmplitudeTrack(8);
+        track.add(1);
+        track.add(2);
+        track.add(3);
+
+        assertArrayEquals(new short[]{1, 2, 3}, track.toArray());
+        assertEquals(1, track.getAmplitudesPerEntry());
+    }
+
+    @Test
+    public void add_clampsToShortRange() {
+        AmplitudeTrack track = new AmplitudeTrack(4);
+        track.add(-5);
+        track.add(40_000);
+
+        assertArrayEquals(new short[]{0, Short.MAX_VALUE}, track.toArray());
+    }
+
+    @Test
+    public void add_whenFull_decimatesKeepingPeaks() {
+        AmplitudeTrack track = new AmplitudeTrack(4);
+        track.add(1);
+        track.add(9);
+        track.add(3);
+        track.add(2);
+        //the fifth amplitude does not fit, pairs are merged and it starts an entry of two
+        track.add(5);
+        assertArrayEquals(new short[]{9, 3}, track.toArray());
+        assertEquals(2, track.getAmplitudesPerEntry());
+
+        track.add(7);
+        assertArrayEquals(new short[]{9, 3, 7}, track.toArray());
+        track.add(4);
+        track.add(6);
+        assertArrayEquals(new short[]{9, 3, 7, 6}, track.toArray());
+    }
+
+    @Test
+    public void add_afterDecimation_everyEntryCoversItsSpan() {
+        AmplitudeTrack track = new AmplitudeTrack(4);
+        for (int i = 0; i < 4 + 2 * 2 + 4 * 2; i++) {
+            track.add(i + 1);
+        }
+
+        //4 entries of one, 2 more of two, merged twice: 4 entries of four
+        assertEquals(4, track.getAmplitudesPerEntry());
+        assertArrayEquals(new short[]{4, 8, 12, 16}, track.toArray());
+    }
+
+    @Test
+    public void toArray_squeezesToCountKeepingPeaks() {
+        AmplitudeTrack track = new AmplitudeTrack(16);
+        for (int amplitude : new int[]{1, 7, 2, 3, 9, 4, 5, 6, 8, 2}) {
+            track.add(amplitude);
+        }
+
+        assertArrayEquals(new short[]{7, 3, 9, 6, 8}, track.toArray(5));
+        assertArrayEquals(track.toArray(), track.toArray(10));
+    }
+
+    @Test
+    public void add_neverExceedsMaxEntries() {
+        AmplitudeTrack track = new AmplitudeTrack(256);
+        for (int i = 0; i < 1_000_000; i++) {
+            track.add(i == 500_000 ? 30_000 : 100);
+        }
+
+        assertTrue(track.size() <= 256);
+        assertTrue(track.size() > 128);
+        short max = 0;
+        for (short entry : track.toArray()) {
+            max = (short) Math.max(max, entry);
+        }
+        assertEquals(30_000, max);
+    }
+
+    @Test
+    public void concurrentReaders_alwaysSeeConsistentSnapshots() throws Exception {
+        final int amplitudes = 500_000;
+        final AmplitudeTrack track = new AmplitudeTrack(64);
+        final boolean[] failed = new boolean[1];
+
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < amplitudes; i++) {
+                track.add(i / 16);
+            }
+        });
+
+        Thread[] readers = new Thread[3];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(() -> {
+                while (writer.isAlive()) {
+                    short[] snapshot = track.toArray();
+                    if (snapshot.length > 64) {
+                        failed[0] = true;
+                    }
+                    //the writer only adds growing amplitudes, merging keeps them sorted
+                    for (int i = 1; i < snapshot.length; i++) {
+                        if (snapshot[i] < snapshot[i - 1]) {
+                            failed[0] = true;
+                        }
+                    }
+                }
+            });
+        }
+
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertFalse(failed[0]);
+        assertTrue(track.size() <= 64);
+    }
+}
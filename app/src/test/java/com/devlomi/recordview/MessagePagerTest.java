@@ -0,0 +1,197 @@
+package com.devlomi.recordview;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MessagePagerTest {
+    private static final int PAGE_SIZE = 10;
+    private static final int MAX_SIZE = 30;
+
+    //in-memory history, loads read it when called like the store's serial executor but answer on flush()
+    private static class FakeSource implements MessagePager.DataSource {
+        final List<Message> rows = new ArrayList<>();
+        final List<Runnable> pending = new ArrayList<>();
+
+        FakeSource(int count) {
+            for (int i = 0; i < count; i++) {
+                insert();
+            }
+        }
+
+        Message insert() {
+            long id = rows.size() + 1;
+            Message message = new Message(id, id, id, Message.Type.TEXT, "m" + id, null, 0, 0, null);
+            rows.add(message);
+            return message;
+        }
+
+        private int indexOf(Message message) {
+            for (int i = 0; i < rows.size(); i++) {
+                if (rows.get(i).getId() == message.getId()) {
+                    return i;
+                }
+            }
+            throw new AssertionError("not stored: " + message.getId());
+        }
+
+        private void answer(int from, int to, boolean hasMore, MessagePager.PageCallback callback) {
+            List<Message> page = new ArrayList<>(rows.subList(from, to));
+            pending.add(() -> callback.onPage(page, hasMore));
+        }
+
+        @Override
+        public void loadLatest(int limit, MessagePager.PageCallback callback) {
+            int from = Math.max(0, rows.size() - limit);
+            answer(from, rows.size(), from > 0, callback);
+        }
+
+        @Override
+        public void loadBefore(Message oldest, int limit, MessagePager.PageCallback callback) {
+            int to = indexOf(oldest);
+            int from = Math.max(0, to - limit);
+            answer(from, to, from > 0, callback);
+        }
+
+        @Override
+        public void loadAfter(Message newest, int limit, MessagePager.PageCallback callback) {
+            int from = indexOf(newest) + 1;
+            int to = Math.min(rows.size(), from + limit);
+            answer(from, to, to < rows.size(), callback);
+        }
+
+        void flush() {
+            while (!pending.isEmpty()) {
+                pending.remove(0).run();
+            }
+        }
+    }
+
+    private static long firstId(MessagePager pager) {
+        return pager.getWindow().get(0).getStableId();
+    }
+
+    private static long lastId(MessagePager pager) {
+        List<Message> window = pager.getWindow();
+        return window.get(window.size() - 1).getStableId();
+    }
+
+    @Test
+    public void loadLatest_showsTheNewestPage() {
+        FakeSource source = new FakeSource(100);
+        MessagePager pager = new MessagePager(source, PAGE_SIZE, MAX_SIZE);
+        pager.loadLatest();
+        source.flush();
+
+        assertEquals(PAGE_SIZE, pager.getWindow().size());
+        assertEquals(91, firstId(pager));
+        assertEquals(100, lastId(pager));
+        assertTrue(pager.hasOlder());
+        assertFalse(pager.hasNewer());
+    }
+
+    @Test
+    public void loadOlder_trimsTheWindowAndLoadNewerComesBack() {
+        FakeSource source = new FakeSource(100);
+        MessagePager pager = new MessagePager(source, PAGE_SIZE, MAX_SIZE);
+        pager.loadLatest();
+        source.flush();
+
+        for (int i = 0; i < 4; i++) {
+            pager.loadOlder();
+            source.flush();
+        }
+        assertEquals(MAX_SIZE, pager.getWindow().size());
+        assertEquals(51, firstId(pager));
+        assertEquals(80, lastId(pager));
+        assertTrue(pager.hasNewer());
+
+        pager.loadNewer();
+        source.flush();
+        assertEquals(MAX_SIZE, pager.getWindow().size());
+        assertEquals(61, firstId(pager));
+        assertEquals(90, lastId(pager));
+    }
+
+    @Test
+    public void loadOlder_onePageAtATime() {
+        FakeSource source = new FakeSource(100);
+        MessagePager pager = new MessagePager(source, PAGE_SIZE, MAX_SIZE);
+        pager.loadLatest();
+        source.flush();
+
+        pager.loadOlder();
+        pager.loadOlder();
+        assertEquals(1, source.pending.size());
+    }
+
+    @Test
+    public void append_addsAtTheEnd() {
+        FakeSource source = new FakeSource(5);
+        MessagePager pager = new MessagePager(source, PAGE_SIZE, MAX_SIZE);
+        List<List<Message>> published = new ArrayList<>();
+        pager.setListener(published::add);
+        pager.loadLatest();
+        source.flush();
+
+        pager.append(source.insert());
+
+        assertEquals(2, published.size());
+        assertEquals(6, pager.getWindow().size());
+        assertEquals(6, lastId(pager));
+        //the earlier window is left untouched for the differ
+        assertEquals(5, published.get(0).size());
+    }
+
+    @Test
+    public void append_whileBrowsingThePast_jumpsToTheLatest() {
+        FakeSource source = new FakeSource(100);
+        MessagePager pager = new MessagePager(source, PAGE_SIZE, MAX_SIZE);
+        pager.loadLatest();
+        source.flush();
+        for (int i = 0; i < 3; i++) {
+            pager.loadOlder();
+            source.flush();
+        }
+        assertTrue(pager.hasNewer());
+
+        pager.append(source.insert());
+        source.flush();
+
+        assertFalse(pager.hasNewer());
+        assertEquals(101, lastId(pager));
+        assertEquals(PAGE_SIZE, pager.getWindow().size());
+    }
+
+    @Test
+    public void append_whileLatestIsLoading_isKeptAfterThePage() {
+        FakeSource source = new FakeSource(20);
+        MessagePager pager = new MessagePager(source, PAGE_SIZE, MAX_SIZE);
+        pager.loadLatest();
+        //stored after the latest page was read
+        Message message = source.insert();
+        pager.append(message);
+        source.flush();
+
+        assertEquals(PAGE_SIZE + 1, pager.getWindow().size());
+        assertSame(message, pager.getWindow().get(PAGE_SIZE));
+    }
+
+    @Test
+    public void pagesForAReplacedWindowAreDropped() {
+        FakeSource source = new FakeSource(100);
+        MessagePager pager = new MessagePager(source, PAGE_SIZE, MAX_SIZE);
+        pager.loadLatest();
+        source.flush();
+
+        pager.loadOlder();
+        pager.loadLatest();
+        source.flush();
+
+        assertEquals(PAGE_SIZE, pager.getWindow().size());
+        assertEquals(91, firstId(pager));
+    }
+}
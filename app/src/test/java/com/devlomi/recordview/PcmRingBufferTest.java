@@ -0,0 +1,84 @@
+package com.devlomi.recordview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PcmRingBufferTest {
+
+    @Test
+    public void capacity_isRoundedUpToPowerOfTwo() {
+        PcmRingBuffer ringBuffer = new PcmRingBuffer(5, 4);
+        assertEquals(8, ringBuffer.getCapacity());
+    }
+
+    @Test
+    public void poll_returnsFramesInOrder() {
+        PcmRingBuffer ringBuffer = new PcmRingBuffer(4, 3);
+        ringBuffer.offer(new short[]{1, 2, 3}, 3);
+        ringBuffer.offer(new short[]{4, 5, 0}, 2);
+
+        short[] frame = new short[3];
+        assertEquals(3, ringBuffer.poll(frame));
+        assertArrayEquals(new short[]{1, 2, 3}, frame);
+        assertEquals(2, ringBuffer.poll(frame));
+        assertEquals(4, frame[0]);
+        assertEquals(5, frame[1]);
+        assertTrue(ringBuffer.isEmpty());
+    }
+
+    @Test
+    public void offer_whenFull_dropsFrameAndCountsOverrun() {
+        PcmRingBuffer ringBuffer = new PcmRingBuffer(2, 1);
+        assertTrue(ringBuffer.offer(new short[]{1}, 1));
+        assertTrue(ringBuffer.offer(new short[]{2}, 1));
+        assertFalse(ringBuffer.offer(new short[]{3}, 1));
+        assertEquals(1, ringBuffer.getOverrunCount());
+
+        short[] frame = new short[1];
+        ringBuffer.poll(frame);
+        assertEquals(1, frame[0]);
+        ringBuffer.poll(frame);
+        assertEquals(2, frame[0]);
+    }
+
+    @Test
+    public void poll_whenEmpty_countsUnderrun() {
+        PcmRingBuffer ringBuffer = new PcmRingBuffer(2, 1);
+        assertEquals(-1, ringBuffer.poll(new short[1]));
+        assertEquals(1, ringBuffer.getUnderrunCount());
+    }
+
+    @Test
+    public void concurrentProducer_deliversEveryFrameInOrder() throws Exception {
+        final int frames = 200_000;
+        final PcmRingBuffer ringBuffer = new PcmRingBuffer(16, 2);
+
+        Thread producer = new Thread(() -> {
+            short[] frame = new short[2];
+            for (int i = 0; i < frames; i++) {
+                frame[0] = (short) i;
+                frame[1] = (short) (i >> 16);
+                while (!ringBuffer.offer(frame, 2)) {
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+
+        short[] frame = new short[2];
+        int expected = 0;
+        while (expected < frames) {
+            if (ringBuffer.poll(frame) < 0) {
+                Thread.yield();
+                continue;
+            }
+            int value = (frame[0] & 0xFFFF) | (frame[1] << 16);
+            assertEquals(expected, value);
+            expected++;
+        }
+
+        producer.join();
+        assertTrue(ringBuffer.isEmpty());
+    }
+}
@@ -0,0 +1,128 @@
+package com.devlomi.recordview;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class RecordingJournalTest {
+    private static final int SAMPLE_RATE = 16000;
+    private static final long FRAME_US = Adts.SAMPLES_PER_FRAME * 1_000_000L / SAMPLE_RATE;
+
+    private File directory;
+    private RecordingJournal journal;
+    private File recording;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal").toFile();
+        journal = new RecordingJournal(new File(directory, "journal"));
+        recording = new File(directory, "voice.m4a");
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(directory);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    // Frames of 20 to 26 bytes, enough of them to pass several checkpoints
+    private static void feed(RecordingJournal.Session session, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            session.onFrame(ByteBuffer.wrap(new byte[20 + i % 7]), i * FRAME_US);
+        }
+    }
+
+    private static long bytesOf(int from, int to) {
+        long bytes = 0;
+        for (int i = from; i < to; i++) {
+            bytes += Adts.HEADER_SIZE + 20 + i % 7;
+        }
+        return bytes;
+    }
+
+    @Test
+    public void session_checkpointsWhileRecordingAndOnStop() throws IOException {
+        RecordingJournal.Session session = journal.begin(recording);
+        session.onStart(SAMPLE_RATE, 1);
+        //a bit over 3 seconds, one checkpoint at 2s
+        feed(session, 0, 50);
+
+        RecordingJournal.Checkpoint checkpoint = RecordingJournal.Checkpoint.read(journal.journalFileFor(recording));
+        assertEquals(recording.getPath(), checkpoint.recordingPath);
+        assertEquals(RecordingJournal.STATE_RECORDING, checkpoint.state);
+        assertTrue(checkpoint.durableFrames > 0 && checkpoint.durableFrames < 50);
+        assertEquals(bytesOf(0, (int) checkpoint.durableFrames), checkpoint.durableBytes);
+
+        session.onStop();
+        checkpoint = RecordingJournal.Checkpoint.read(journal.journalFileFor(recording));
+        assertEquals(RecordingJournal.STATE_STOPPED, checkpoint.state);
+        assertEquals(50, checkpoint.durableFrames);
+        assertEquals(journal.framesFileFor(recording).length(), checkpoint.durableBytes);
+    }
+
+    @Test
+    public void truncate_keepsCompleteFramesAfterCheckpointAndDropsTornTail() throws IOException {
+        RecordingJournal.Session session = journal.begin(recording);
+        session.onStart(SAMPLE_RATE, 1);
+        feed(session, 0, 40);
+
+        //the process dies in the middle of writing a frame
+        File framesFile = journal.framesFileFor(recording);
+        try (FileOutputStream out = new FileOutputStream(framesFile, true)) {
+            byte[] header = new byte[Adts.HEADER_SIZE];
+            Adts.writeHeader(header, 8, 1, 100);
+            out.write(header);
+            out.write(new byte[30]);
+        }
+
+        RecordingJournal.Checkpoint checkpoint = RecordingJournal.Checkpoint.read(journal.journalFileFor(recording));
+        assertTrue(checkpoint.durableFrames < 40);
+
+        assertEquals(40, RecordingJournal.truncateToCompleteFrames(framesFile, checkpoint));
+        assertEquals(bytesOf(0, 40), framesFile.length());
+    }
+
+    @Test
+    public void truncate_recountsWhenDurablePartIsShort() throws IOException {
+        RecordingJournal.Session session = journal.begin(recording);
+        session.onStart(SAMPLE_RATE, 1);
+        feed(session, 0, 10);
+        session.onStop();
+
+        File framesFile = journal.framesFileFor(recording);
+        RecordingJournal.Checkpoint claimed = new RecordingJournal.Checkpoint(recording.getPath(), SAMPLE_RATE, 1,
+                RecordingJournal.STATE_STOPPED, framesFile.length() + 100, 12);
+
+        assertEquals(10, RecordingJournal.truncateToCompleteFrames(framesFile, claimed));
+    }
+
+    @Test
+    public void commit_removesTheJournal() throws IOException {
+        RecordingJournal.Session session = journal.begin(recording);
+        session.onStart(SAMPLE_RATE, 1);
+        feed(session, 0, 10);
+        session.onStop();
+
+        journal.commit(recording);
+
+        assertFalse(journal.journalFileFor(recording).exists());
+        assertFalse(journal.framesFileFor(recording).exists());
+    }
+}
@@ -0,0 +1,189 @@
+package com.devlomi.recordview;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class SilenceTrimmerTest {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int FRAME_SIZE = 320;
+
+    //collects what reaches the end of the pipeline
+    private static class CollectingSink implements PcmSink {
+        short[] samples = new short[SAMPLE_RATE * 40];
+        int count = 0;
+        boolean stopped = false;
+
+        @Override
+        public void onStart(int sampleRate, int channelCount) {
+        }
+
+        @Override
+        public void onPcm(short[] buffer, int length) {
+            System.arraycopy(buffer, 0, samples, count, length);
+            count += length;
+        }
+
+        @Override
+        public void onStop() {
+            stopped = true;
+        }
+    }
+
+    private static short[] tone(int ms, int amplitude) {
+        short[] samples = new short[SAMPLE_RATE * ms / 1000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (amplitude * Math.sin(2 * Math.PI * 220 * i / SAMPLE_RATE));
+        }
+        return samples;
+    }
+
+    private static short[] noise(int ms, int amplitude, long seed) {
+        java.util.Random random = new java.util.Random(seed);
+        short[] samples = new short[SAMPLE_RATE * ms / 1000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (random.nextInt(2 * amplitude + 1) - amplitude);
+        }
+        return samples;
+    }
+
+    private static void feed(PcmSink sink, short[] samples) throws IOException {
+        short[] frame = new short[FRAME_SIZE];
+        for (int offset = 0; offset < samples.length; offset += FRAME_SIZE) {
+            int length = Math.min(FRAME_SIZE, samples.length - offset);
+            System.arraycopy(samples, offset, frame, 0, length);
+            sink.onPcm(frame, length);
+        }
+    }
+
+    private static int ms(int samples) {
+        return samples * 1000 / SAMPLE_RATE;
+    }
+
+    @Test
+    public void detector_tellsToneFromQuietNoise() {
+        VoiceActivityDetector detector = new VoiceActivityDetector(0);
+        short[] quiet = noise(20, 40, 1);
+        short[] voice = tone(20, 6000);
+
+        assertFalse(detector.isSpeech(quiet, quiet.length));
+        assertTrue(detector.isSpeech(voice, voice.length));
+        assertFalse(detector.isSpeech(quiet, quiet.length));
+    }
+
+    @Test
+    public void detector_ignoresModerateHiss() {
+        VoiceActivityDetector detector = new VoiceActivityDetector(0);
+        //white noise crosses zero on about every other sample
+        short[] hiss = noise(20, 700, 2);
+        short[] quiet = noise(20, 40, 1);
+        detector.isSpeech(quiet, quiet.length);
+        detector.isSpeech(hiss, hiss.length);
+
+        //the floor learns a steady hiss even when it first passes for speech
+        for (int i = 0; i < 100; i++) {
+            detector.isSpeech(hiss, hiss.length);
+        }
+        assertFalse(detector.isSpeech(hiss, hiss.length));
+
+        short[] voice = tone(20, 6000);
+        assertTrue(detector.isSpeech(voice, voice.length));
+    }
+
+    @Test
+    public void detector_hearsSoftSpeechInAQuietRoom() {
+        VoiceActivityDetector detector = new VoiceActivityDetector(0);
+        short[] quiet = noise(20, 40, 1);
+        //about -45 dBFS, below any fixed floor worth having in a noisy room
+        short[] softVoice = tone(20, 250);
+
+        for (int i = 0; i < 10; i++) {
+            assertFalse(detector.isSpeech(quiet, quiet.length));
+        }
+        assertTrue(detector.isSpeech(softVoice, softVoice.length));
+    }
+
+    @Test
+    public void leadingAndTrailingSilence_areTrimmed() throws IOException {
+        CollectingSink output = new CollectingSink();
+        SilenceTrimmer trimmer = new SilenceTrimmer(FRAME_SIZE, 700, output);
+        trimmer.onStart(SAMPLE_RATE, 1);
+
+        feed(trimmer, noise(2000, 40, 3));
+        feed(trimmer, tone(1000, 6000));
+        feed(trimmer, noise(2000, 40, 4));
+        trimmer.onStop();
+
+        assertTrue(output.stopped);
+        //the word, the lead-in, the hangover and the tail, none of the 4 seconds of silence
+        assertTrue(ms(output.count) >= 1000);
+        assertTrue(ms(output.count) <= 1000 + 100 + 160 + 100);
+        assertEquals(output.count, trimmer.getForwardedSamples());
+    }
+
+    @Test
+    public void longPause_isShortened() throws IOException {
+        CollectingSink output = new CollectingSink();
+        SilenceTrimmer trimmer = new SilenceTrimmer(FRAME_SIZE, 500, output);
+        trimmer.onStart(SAMPLE_RATE, 1);
+
+        feed(trimmer, tone(500, 6000));
+        feed(trimmer, noise(3000, 40, 5));
+        feed(trimmer, tone(500, 6000));
+        trimmer.onStop();
+
+        assertTrue(ms(output.count) >= 1000 + 500);
+        assertTrue(ms(output.count) <= 1000 + 500 + 160 + 100);
+    }
+
+    @Test
+    public void speech_passesThroughUntouched() throws IOException {
+        CollectingSink output = new CollectingSink();
+        SilenceTrimmer trimmer = new SilenceTrimmer(FRAME_SIZE, 700, output);
+        trimmer.onStart(SAMPLE_RATE, 1);
+
+        short[] word = tone(1000, 6000);
+        feed(trimmer, word);
+        trimmer.onStop();
+
+        assertEquals(word.length, output.count);
+        for (int i = 0; i < word.length; i++) {
+            assertEquals(word[i], output.samples[i]);
+        }
+    }
+
+    @Test
+    public void quietRecording_keepsItsFullLength() throws IOException {
+        CollectingSink output = new CollectingSink();
+        SilenceTrimmer trimmer = new SilenceTrimmer(FRAME_SIZE, 700, output);
+        trimmer.onStart(SAMPLE_RATE, 1);
+
+        short[] quiet = noise(10_000, 40, 6);
+        feed(trimmer, quiet);
+        trimmer.onStop();
+
+        assertEquals(quiet.length, output.count);
+        for (int i = 0; i < quiet.length; i++) {
+            assertEquals(quiet[i], output.samples[i]);
+        }
+    }
+
+    @Test
+    public void recordingWithoutSpeech_stopsTrimmingOnceTheLeadingSilenceIsTooLong() throws IOException {
+        CollectingSink output = new CollectingSink();
+        SilenceTrimmer trimmer = new SilenceTrimmer(FRAME_SIZE, 700, output);
+        trimmer.onStart(SAMPLE_RATE, 1);
+
+        short[] quiet = noise(SilenceTrimmer.MAX_LEADING_SILENCE_MS + 1000, 40, 7);
+        feed(trimmer, quiet);
+        //written as it comes from here on, a word no longer drops what came before
+        assertEquals(quiet.length, output.count);
+        feed(trimmer, tone(500, 6000));
+        feed(trimmer, noise(2000, 40, 8));
+        trimmer.onStop();
+
+        assertEquals(ms(quiet.length) + 500 + 2000, ms(output.count));
+    }
+}
@@ -0,0 +1,245 @@
+package com.devlomi.recordview;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StreamingUploadSinkTest {
+    private static final int SAMPLE_RATE = 16000;
+    private static final long FRAME_US = 1024 * 1_000_000L / SAMPLE_RATE;
+    private static final long CHUNK_US = 200_000;
+
+    //in-process server speaking the resumable chunk protocol, failures can be injected per send
+    private static class LoopbackServer implements ChunkTransport {
+        final Map<String, ByteArrayOutputStream> uploads = new HashMap<>();
+        final Map<String, Integer> nextSequence = new HashMap<>();
+        final List<Integer> stored = new ArrayList<>();
+        boolean completed = false;
+        int sends = 0;
+        //fail these sends before storing the chunk
+        final List<Integer> failBeforeStore = new ArrayList<>();
+        //store the chunk but lose the acknowledgement
+        final List<Integer> failAfterStore = new ArrayList<>();
+        boolean alwaysFail = false;
+
+        @Override
+        public synchronized int open(String uploadId) throws IOException {
+            if (alwaysFail) {
+                throw new IOException("connection refused");
+            }
+            if (!uploads.containsKey(uploadId)) {
+                uploads.put(uploadId, new ByteArrayOutputStream());
+                nextSequence.put(uploadId, 0);
+            }
+            return nextSequence.get(uploadId);
+        }
+
+        @Override
+        public synchronized void send(AudioChunk chunk) throws IOException {
+            int send = sends++;
+            if (alwaysFail || failBeforeStore.contains(send)) {
+                throw new IOException("connection reset");
+            }
+            if (AudioChunk.crc32(chunk.getData()) != chunk.getCrc32()) {
+                throw new IOException("bad crc");
+            }
+
+            int expected = nextSequence.get(chunk.getUploadId());
+            if (chunk.getSequence() > expected) {
+                throw new IOException("gap, expected " + expected);
+            }
+            if (chunk.getSequence() == expected) {
+                uploads.get(chunk.getUploadId()).write(chunk.getData(), 0, chunk.getData().length);
+                nextSequence.put(chunk.getUploadId(), expected + 1);
+                stored.add(chunk.getSequence());
+                completed |= chunk.isLast();
+            }
+
+            if (failAfterStore.contains(send)) {
+                throw new IOException("timeout waiting for ack");
+            }
+        }
+
+        synchronized int storedCount() {
+            return stored.size();
+        }
+
+        synchronized byte[] data(String uploadId) {
+            return uploads.get(uploadId).toByteArray();
+        }
+    }
+
+    private static class RecordingListener implements StreamingUploadSink.Listener {
+        volatile int uploaded = 0;
+        volatile int retries = 0;
+        volatile int completedChunks = -1;
+        volatile IOException failure;
+
+        @Override
+        public void onChunkUploaded(AudioChunk chunk) {
+            uploaded++;
+        }
+
+        @Override
+        public void onRetry(AudioChunk chunk, int attempt, IOException e) {
+            retries++;
+        }
+
+        @Override
+        public void onComplete(String uploadId, int chunkCount) {
+            completedChunks = chunkCount;
+        }
+
+        @Override
+        public void onFailed(String uploadId, IOException e) {
+            failure = e;
+        }
+    }
+
+    private static byte[] frame(int index) {
+        byte[] frame = new byte[20 + index % 7];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) (index * 31 + i);
+        }
+        return frame;
+    }
+
+    // Feeds frames and returns the ADTS stream the server should end up with
+    private static byte[] feed(StreamingUploadSink sink, int from, int to) throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        byte[] header = new byte[7];
+        for (int i = from; i < to; i++) {
+            byte[] frame = frame(i);
+            //8 is the ADTS index of 16 kHz
+            Adts.writeHeader(header, 8, 1, frame.length);
+            expected.write(header, 0, header.length);
+            expected.write(frame, 0, frame.length);
+            sink.onFrame(ByteBuffer.wrap(frame), i * FRAME_US);
+        }
+        return expected.toByteArray();
+    }
+
+    private static void waitFor(LoopbackServer server, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (server.storedCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void chunksAreUploadedWhileRecording() throws Exception {
+        LoopbackServer server = new LoopbackServer();
+        StreamingUploadSink sink = new StreamingUploadSink(server, "voice-1", CHUNK_US, 1);
+        RecordingListener listener = new RecordingListener();
+        sink.setListener(listener);
+
+        sink.onStart(SAMPLE_RATE, 1);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        //about a second of frames, four per chunk
+        expected.write(feed(sink, 0, 16));
+
+        //the chunks sealed so far are on the server before the recording stops
+        waitFor(server, 3);
+        assertEquals(3, server.storedCount());
+        assertFalse(server.completed);
+
+        expected.write(feed(sink, 16, 20));
+        sink.onStop();
+        assertTrue(sink.awaitCompletion(5, TimeUnit.SECONDS));
+
+        assertNull(sink.getFailure());
+        assertTrue(server.completed);
+        assertArrayEquals(expected.toByteArray(), server.data("voice-1"));
+        for (int i = 0; i < server.stored.size(); i++) {
+            assertEquals(i, (int) server.stored.get(i));
+        }
+        assertEquals(server.stored.size(), listener.completedChunks);
+        assertEquals(0, listener.retries);
+    }
+
+    @Test
+    public void failedSendsAreRetriedAndResumedWithoutDuplicates() throws Exception {
+        LoopbackServer server = new LoopbackServer();
+        server.failBeforeStore.add(1);
+        server.failAfterStore.add(3);
+        server.failAfterStore.add(4);
+        StreamingUploadSink sink = new StreamingUploadSink(server, "voice-2", CHUNK_US, 1);
+        RecordingListener listener = new RecordingListener();
+        sink.setListener(listener);
+
+        sink.onStart(SAMPLE_RATE, 1);
+        byte[] expected = feed(sink, 0, 40);
+        sink.onStop();
+        assertTrue(sink.awaitCompletion(5, TimeUnit.SECONDS));
+
+        assertNull(sink.getFailure());
+        assertEquals(3, listener.retries);
+        assertArrayEquals(expected, server.data("voice-2"));
+        for (int i = 0; i < server.stored.size(); i++) {
+            assertEquals(i, (int) server.stored.get(i));
+        }
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() throws Exception {
+        LoopbackServer server = new LoopbackServer();
+        server.alwaysFail = true;
+        StreamingUploadSink sink = new StreamingUploadSink(server, "voice-3", CHUNK_US, 1);
+        RecordingListener listener = new RecordingListener();
+        sink.setListener(listener);
+
+        sink.onStart(SAMPLE_RATE, 1);
+        feed(sink, 0, 5);
+        sink.onStop();
+        assertTrue(sink.awaitCompletion(5, TimeUnit.SECONDS));
+
+        assertNotNull(sink.getFailure());
+        assertSame(sink.getFailure(), listener.failure);
+        assertEquals(StreamingUploadSink.MAX_ATTEMPTS - 1, listener.retries);
+        assertEquals(0, listener.uploaded);
+    }
+
+    @Test
+    public void framesAfterGivingUp_areRefused() throws Exception {
+        LoopbackServer server = new LoopbackServer();
+        server.alwaysFail = true;
+        StreamingUploadSink sink = new StreamingUploadSink(server, "voice-5", CHUNK_US, 1);
+
+        sink.onStart(SAMPLE_RATE, 1);
+        feed(sink, 0, 5);
+        //the upload thread ends when it gives up, even while still recording
+        assertTrue(sink.awaitCompletion(5, TimeUnit.SECONDS));
+        assertNotNull(sink.getFailure());
+        assertEquals(0, sink.getQueuedChunkCount());
+
+        try {
+            sink.onFrame(ByteBuffer.wrap(frame(5)), 5 * FRAME_US);
+            fail("frames must be refused after the upload gave up");
+        } catch (IOException e) {
+            assertSame(sink.getFailure(), e.getCause());
+        }
+        assertEquals(0, sink.getQueuedChunkCount());
+    }
+
+    @Test
+    public void emptyRecordingStillSendsTheLastChunk() throws Exception {
+        LoopbackServer server = new LoopbackServer();
+        StreamingUploadSink sink = new StreamingUploadSink(server, "voice-4", CHUNK_US, 1);
+
+        sink.onStart(SAMPLE_RATE, 1);
+        sink.onStop();
+        assertTrue(sink.awaitCompletion(5, TimeUnit.SECONDS));
+
+        assertTrue(server.completed);
+        assertEquals(0, server.data("voice-4").length);
+    }
+}
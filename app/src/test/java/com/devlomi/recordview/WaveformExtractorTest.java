@@ -0,0 +1,129 @@
+package com.devlomi.recordview;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class WaveformExtractorTest {
+    private static final int BUCKET = AudioRecorder.FRAME_SIZE;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("waveform", ".wav").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static void writeChunk(ByteArrayOutputStream out, String tag, byte[] data) {
+        ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(tag.getBytes()).putInt(data.length);
+        out.write(header.array(), 0, 8);
+        out.write(data, 0, data.length);
+        if (data.length % 2 != 0) {
+            out.write(0);
+        }
+    }
+
+    private static byte[] fmt(int size, int bitsPerSample) {
+        ByteBuffer fmt = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        fmt.putShort((short) 1).putShort((short) 1).putInt(16000)
+                .putInt(16000 * bitsPerSample / 8).putShort((short) (bitsPerSample / 8)).putShort((short) bitsPerSample);
+        return fmt.array();
+    }
+
+    // One bucket of samples per peak
+    private static byte[] pcm(int... peaks) {
+        ByteBuffer data = ByteBuffer.allocate(peaks.length * BUCKET * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int peak : peaks) {
+            for (int i = 0; i < BUCKET; i++) {
+                data.putShort((short) (i % 2 == 0 ? peak : -peak / 2));
+            }
+        }
+        return data.array();
+    }
+
+    private void writeWav(byte[]... chunks) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write("WAVE".getBytes());
+        for (byte[] chunk : chunks) {
+            body.write(chunk);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeChunk(out, "RIFF", body.toByteArray());
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            out.writeTo(stream);
+        }
+    }
+
+    private static byte[] chunk(String tag, byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeChunk(out, tag, data);
+        return out.toByteArray();
+    }
+
+    private byte[] read() throws IOException {
+        WaveformSummary summary = new WaveformSummary();
+        WaveformExtractor.readWav(file, summary);
+        summary.onStop();
+        return summary.toByteArray();
+    }
+
+    @Test
+    public void readWav_summarizesTheDataChunk() throws IOException {
+        writeWav(chunk("fmt ", fmt(16, 16)), chunk("data", pcm(1280, 2560, 3840)));
+
+        assertArrayEquals(new byte[]{10, 20, 30}, read());
+    }
+
+    @Test
+    public void readWav_skipsThePadByteOfOddSizedChunks() throws IOException {
+        writeWav(chunk("fmt ", fmt(17, 16)),
+                chunk("LIST", new byte[]{1, 2, 3}),
+                chunk("data", pcm(1280, 2560)));
+
+        assertArrayEquals(new byte[]{10, 20}, read());
+    }
+
+    @Test
+    public void readWav_keepsWhatATruncatedFileHas() throws IOException {
+        byte[] data = pcm(1280, 2560);
+        ByteArrayOutputStream dataChunk = new ByteArrayOutputStream();
+        writeChunk(dataChunk, "data", data);
+        byte[] truncated = dataChunk.toByteArray();
+        //the header still claims both buckets but the second one was never written
+        writeWav(chunk("fmt ", fmt(16, 16)), Arrays.copyOf(truncated, 8 + BUCKET * 2));
+
+        assertArrayEquals(new byte[]{10}, read());
+    }
+
+    @Test(expected = IOException.class)
+    public void readWav_rejects8BitSamples() throws IOException {
+        writeWav(chunk("fmt ", fmt(16, 8)), chunk("data", new byte[64]));
+        read();
+    }
+
+    @Test(expected = IOException.class)
+    public void readWav_rejectsOtherFiles() throws IOException {
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            stream.write("ID3 not a wave file".getBytes());
+        }
+        read();
+    }
+}
@@ -0,0 +1,83 @@
+package com.devlomi.record_view;
+
+import android.content.Context;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.MotionEvent;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Drives RecordView with a burst of drag events, each followed by the per frame evaluation,
+ * and checks that no objects are allocated on the main thread while the finger moves.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DragAllocationTest {
+    private static final String TAG = "DragAllocationTest";
+    private static final int MOVE_COUNT = 500;
+
+    @Test
+    public void dragDoesNotAllocate() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+            FrameLayout parent = new FrameLayout(context);
+            RecordView recordView = new RecordView(context);
+            RecordButton recordButton = new RecordButton(context);
+            parent.addView(recordView, new FrameLayout.LayoutParams(1080, 200));
+            parent.addView(recordButton, new FrameLayout.LayoutParams(120, 120));
+            recordButton.setRecordView(recordView);
+            recordView.setSoundEnabled(false);
+
+            parent.measure(View.MeasureSpec.makeMeasureSpec(1080, View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(200, View.MeasureSpec.EXACTLY));
+            parent.layout(0, 0, 1080, 200);
+            recordButton.setX(960);
+
+            long downTime = SystemClock.uptimeMillis();
+            MotionEvent down = MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_DOWN, 1000, 60, 0);
+            recordView.onActionDown(recordButton, down);
+
+            //events are obtained up front so the measured loop only contains the drag itself
+            MotionEvent[] moves = new MotionEvent[MOVE_COUNT];
+            for (int i = 0; i < MOVE_COUNT; i++) {
+                float x = 950 - (i % 50);
+                moves[i] = MotionEvent.obtain(downTime, downTime + i, MotionEvent.ACTION_MOVE, x, 60, 0);
+            }
+
+            //the first move schedules the frame callback, which may allocate its record once
+            recordView.onActionMove(recordButton, moves[0]);
+
+            Debug.startAllocCounting();
+            Debug.resetThreadAllocCount();
+            long startNs = System.nanoTime();
+
+            for (MotionEvent move : moves) {
+                recordView.onActionMove(recordButton, move);
+                recordView.onGestureFrame(move.getRawX(), move.getRawY(), 0, 0);
+            }
+
+            long elapsedNs = System.nanoTime() - startNs;
+            int allocations = Debug.getThreadAllocCount();
+            Debug.stopAllocCounting();
+
+            Log.d(TAG, "drag: " + (elapsedNs / MOVE_COUNT) + " ns/event, " + allocations + " allocations");
+
+            down.recycle();
+            for (MotionEvent move : moves) {
+                move.recycle();
+            }
+
+            assertEquals(0, allocations);
+        });
+    }
+}
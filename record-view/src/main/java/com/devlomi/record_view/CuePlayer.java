@@ -0,0 +1,90 @@
+package com.devlomi.record_view;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.SoundPool;
+import android.util.Log;
+import android.util.SparseBooleanArray;
+import android.util.SparseIntArray;
+
+/**
+ * Plays the short record cues (start, finish, error) through one {@link SoundPool} shared by all
+ * RecordViews. Cues are decoded once when preloaded, so playing one has no prepare cost.
+ * Must be used from the main thread.
+ */
+class CuePlayer implements SoundPool.OnLoadCompleteListener {
+    private static final String TAG = "CuePlayer";
+    private static final int MAX_STREAMS = 2;
+
+    private static CuePlayer instance;
+
+    private final Context context;
+    private final SoundPool soundPool;
+    //raw resource id -> SoundPool sound id
+    private final SparseIntArray soundIds = new SparseIntArray();
+    private final SparseBooleanArray loadedSounds = new SparseBooleanArray();
+    //a cue that was asked for before it finished loading
+    private int pendingSoundId = 0;
+
+    static CuePlayer getInstance(Context context) {
+        if (instance == null) {
+            instance = new CuePlayer(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private CuePlayer(Context context) {
+        this.context = context;
+
+        AudioAttributes attributes = new AudioAttributes.Builder()
+                .setUsage(AudioAttributes.USAGE_ASSISTANCE_SONIFICATION)
+                .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                .build();
+
+        soundPool = new SoundPool.Builder()
+                .setMaxStreams(MAX_STREAMS)
+                .setAudioAttributes(attributes)
+                .build();
+        soundPool.setOnLoadCompleteListener(this);
+    }
+
+    //0 means no sound
+    void preload(int soundRes) {
+        if (soundRes == 0 || soundIds.indexOfKey(soundRes) >= 0) {
+            return;
+        }
+
+        soundIds.put(soundRes, soundPool.load(context, soundRes, 1));
+    }
+
+    void play(int soundRes) {
+        if (soundRes == 0) {
+            return;
+        }
+
+        preload(soundRes);
+        int soundId = soundIds.get(soundRes);
+
+        if (loadedSounds.get(soundId)) {
+            soundPool.play(soundId, 1f, 1f, 1, 0, 1f);
+        } else {
+            pendingSoundId = soundId;
+        }
+    }
+
+    @Override
+    public void onLoadComplete(SoundPool soundPool, int soundId, int status) {
+        if (status != 0) {
+            Log.w(TAG, "Failed to load cue " + soundId + ", status " + status);
+        } else {
+            loadedSounds.put(soundId, true);
+        }
+
+        if (soundId == pendingSoundId) {
+            pendingSoundId = 0;
+            if (status == 0) {
+                soundPool.play(soundId, 1f, 1f, 1, 0, 1f);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.devlomi.record_view;
+
+import android.view.Choreographer;
+import android.view.MotionEvent;
+
+/**
+ * Collects the samples of the record gesture and hands them to RecordView once per frame.
+ * <p>
+ * Move events can arrive several times per frame and carry batched historical samples.
+ * Every sample goes into the velocity estimate, but the cancel and lock thresholds are only
+ * evaluated for the newest position, right before the frame is drawn.
+ */
+class GestureTracker implements Choreographer.FrameCallback {
+
+    interface Listener {
+        void onGestureFrame(float rawX, float rawY, float velocityX, float velocityY);
+    }
+
+    //weight of the newest sample in the smoothed velocity
+    private static final float VELOCITY_SMOOTHING = 0.4f;
+
+    private final Listener listener;
+    private float rawX, rawY;
+    //pixels per second
+    private float velocityX, velocityY;
+    private long lastEventTime;
+    private boolean isTracking = false;
+    private boolean isFramePending = false;
+    private boolean hasPendingSample = false;
+
+    GestureTracker(Listener listener) {
+        this.listener = listener;
+    }
+
+    void start(MotionEvent downEvent) {
+        stop();
+        rawX = downEvent.getRawX();
+        rawY = downEvent.getRawY();
+        velocityX = 0;
+        velocityY = 0;
+        lastEventTime = downEvent.getEventTime();
+        isTracking = true;
+    }
+
+    void addMovement(MotionEvent moveEvent) {
+        if (!isTracking) {
+            return;
+        }
+
+        //historical samples are in view coordinates, all samples of one event share the same offset
+        float offsetX = moveEvent.getRawX() - moveEvent.getX();
+        float offsetY = moveEvent.getRawY() - moveEvent.getY();
+
+        int historySize = moveEvent.getHistorySize();
+        for (int i = 0; i < historySize; i++) {
+            addSample(moveEvent.getHistoricalX(i) + offsetX,
+                    moveEvent.getHistoricalY(i) + offsetY,
+                    moveEvent.getHistoricalEventTime(i));
+        }
+        addSample(moveEvent.getRawX(), moveEvent.getRawY(), moveEvent.getEventTime());
+
+        hasPendingSample = true;
+        if (!isFramePending) {
+            isFramePending = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    // Delivers a sample that is still waiting for its frame, e.g. when the finger is lifted
+    void flush() {
+        if (isFramePending) {
+            Choreographer.getInstance().removeFrameCallback(this);
+            isFramePending = false;
+        }
+        dispatchPendingSample();
+    }
+
+    void stop() {
+        if (isFramePending) {
+            Choreographer.getInstance().removeFrameCallback(this);
+            isFramePending = false;
+        }
+        isTracking = false;
+        hasPendingSample = false;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        isFramePending = false;
+        dispatchPendingSample();
+    }
+
+    private void dispatchPendingSample() {
+        if (isTracking && hasPendingSample) {
+            hasPendingSample = false;
+            listener.onGestureFrame(rawX, rawY, velocityX, velocityY);
+        }
+    }
+
+    private void addSample(float x, float y, long eventTime) {
+        long deltaMs = eventTime - lastEventTime;
+        if (deltaMs > 0) {
+            velocityX += ((x - rawX) * 1000f / deltaMs - velocityX) * VELOCITY_SMOOTHING;
+            velocityY += ((y - rawY) * 1000f / deltaMs - velocityY) * VELOCITY_SMOOTHING;
+            lastEventTime = eventTime;
+        }
+        rawX = x;
+        rawY = y;
+    }
+}
@@ -0,0 +1,25 @@
+package com.devlomi.record_view;
+
+import androidx.annotation.WorkerThread;
+
+/**
+ * Counterpart of {@link OnRecordListener} for the heavy part of the record lifecycle.
+ * <p>
+ * Every method runs on the {@link RecordIoExecutor}, never on the UI thread, one at a time and in
+ * the order the events happened. An exception thrown here fails the event's {@link RecordFuture},
+ * see {@link RecordView#getLastRecordTask()}. UI work stays in the {@link OnRecordListener},
+ * which is still called on the UI thread right after the task is queued.
+ */
+public interface OnRecordAsyncListener {
+    @WorkerThread
+    void onStart() throws Exception;
+
+    @WorkerThread
+    void onCancel() throws Exception;
+
+    @WorkerThread
+    void onFinish(long recordTime, boolean limitReached) throws Exception;
+
+    @WorkerThread
+    void onLessThanSecond() throws Exception;
+}
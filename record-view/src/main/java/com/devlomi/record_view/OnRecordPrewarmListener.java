@@ -0,0 +1,13 @@
+package com.devlomi.record_view;
+
+/**
+ * Lets the app open the audio input before the user touches the record button,
+ * so the recording can start without any setup on ACTION_DOWN.
+ */
+public interface OnRecordPrewarmListener {
+    //the record button became visible, a recording may start any moment
+    void onPrewarm();
+
+    //the record button is no longer visible, release what onPrewarm() acquired
+    void onCooldown();
+}
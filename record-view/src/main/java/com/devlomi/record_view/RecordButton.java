@@ -80,6 +80,29 @@ public class RecordButton extends AppCompatImageView implements View.OnTouchList
         setClip(this);
     }
 
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        notifyShownChanged();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        notifyShownChanged();
+    }
+
+    protected boolean isShownInWindow() {
+        return getWindowVisibility() == VISIBLE && isShown();
+    }
+
+    private void notifyShownChanged() {
+        //called from the super constructor too, before the record view is set
+        if (recordView != null) {
+            recordView.onRecordButtonShownChanged(isShownInWindow());
+        }
+    }
+
     public void setScaleUpTo(Float scaleTo) {
         scaleAnim.setScaleUpTo(scaleTo);
     }
@@ -0,0 +1,73 @@
+package com.devlomi.record_view;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Completion of a task on the {@link RecordIoExecutor}.
+ * Besides the blocking {@link #get()}, callbacks can be added that are called on the main thread.
+ */
+public class RecordFuture<T> extends FutureTask<T> {
+
+    public interface Callback<T> {
+        // error is null when the task succeeded
+        void onComplete(T result, Exception error);
+    }
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    //guarded by this, null once the task is done
+    private List<Callback<T>> callbacks = new ArrayList<>();
+
+    RecordFuture(Callable<T> callable) {
+        super(callable);
+    }
+
+    // Called on the main thread, right away (posted) if the task is already done
+    public void addCallback(Callback<T> callback) {
+        synchronized (this) {
+            if (callbacks != null) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        mainHandler.post(() -> deliver(callback));
+    }
+
+    void fail(Exception error) {
+        setException(error);
+    }
+
+    @Override
+    protected void done() {
+        List<Callback<T>> pending;
+        synchronized (this) {
+            pending = callbacks;
+            callbacks = null;
+        }
+
+        for (Callback<T> callback : pending) {
+            mainHandler.post(() -> deliver(callback));
+        }
+    }
+
+    private void deliver(Callback<T> callback) {
+        T result = null;
+        Exception error = null;
+        try {
+            result = get();
+        } catch (ExecutionException e) {
+            error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (CancellationException | InterruptedException e) {
+            error = e;
+        }
+        callback.onComplete(result, error);
+    }
+}
@@ -0,0 +1,72 @@
+package com.devlomi.record_view;
+
+import android.os.Process;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The thread recording I/O runs on: starting and stopping recorders, creating, moving and
+ * deleting files.
+ * <p>
+ * There is a single worker, so tasks run one at a time in the order they were submitted and a
+ * stop can never overtake the start before it. Every task of a recording, from its start to its
+ * cleanup, is always queued: a dropped start would let the finish after it run against the previous
+ * recording, a dropped stop would leave the microphone open or a file behind. Optional work that no
+ * recording depends on, such as warming up, can be submitted with {@link #tryExecute(RecordTask)},
+ * which refuses it while the worker is {@link #MAX_PENDING_FOR_TRY} tasks behind.
+ */
+public final class RecordIoExecutor {
+    static final int MAX_PENDING_FOR_TRY = 16;
+
+    private static RecordIoExecutor instance;
+
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+        Thread thread = new Thread(() -> {
+            //starting a recording is on this thread, keep it ahead of ordinary background work
+            Process.setThreadPriority(Process.THREAD_PRIORITY_FOREGROUND);
+            runnable.run();
+        }, "RecordIoExecutor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static synchronized RecordIoExecutor getInstance() {
+        if (instance == null) {
+            instance = new RecordIoExecutor();
+        }
+        return instance;
+    }
+
+    private RecordIoExecutor() {
+    }
+
+    // Always queued, for stopping, cancelling, finishing and anything else that must not be lost
+    public RecordFuture<Void> execute(RecordTask task) {
+        RecordFuture<Void> future = newFuture(task);
+        executor.execute(future);
+        return future;
+    }
+
+    // For optional work outside any recording, the future fails with a RejectedExecutionException
+    // when too many tasks are already waiting
+    public RecordFuture<Void> tryExecute(RecordTask task) {
+        RecordFuture<Void> future = newFuture(task);
+        if (executor.getQueue().size() >= MAX_PENDING_FOR_TRY) {
+            future.fail(new RejectedExecutionException("Record I/O is " + MAX_PENDING_FOR_TRY + " tasks behind"));
+        } else {
+            executor.execute(future);
+        }
+        return future;
+    }
+
+    private static RecordFuture<Void> newFuture(RecordTask task) {
+        return new RecordFuture<>(() -> {
+            task.run();
+            return null;
+        });
+    }
+}
@@ -1,6 +1,5 @@
 package com.devlomi.record_view;
 
-import android.animation.AnimatorSet;
 import android.animation.ValueAnimator;
 import android.content.Context;
 import android.content.res.TypedArray;
@@ -14,7 +13,6 @@ import android.graphics.drawable.Drawable;
 import android.util.AttributeSet;
 import android.view.View;
 import android.view.animation.AnticipateInterpolator;
-import android.view.animation.DecelerateInterpolator;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -33,7 +31,11 @@ public class RecordLockView extends View {
 
     private float topLockTop, topLockBottom, initialTopLockTop, initialTopLockBottom = 0f;
 
-    private Rect bottomLockRect;
+    //everything onDraw needs is allocated once and updated in place, onDraw runs on every drag event
+    private final Paint circlePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Rect bottomLockRect = new Rect();
+    private final Rect topLockRect = new Rect();
+    private ValueAnimator alphaAnimator;
 
     //reduce calling DpUtil.toDp on onDraw
     private float fiveDp, fourDp, twoDp;
@@ -90,21 +92,26 @@ public class RecordLockView extends View {
 
 
     private void animateAlpha() {
-        ValueAnimator valueAnimator = ValueAnimator.ofInt(255, 0);
-        valueAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-            @Override
-            public void onAnimationUpdate(ValueAnimator animation) {
-                int animatedValue = (int) animation.getAnimatedValue();
-                recordLockAlpha = animatedValue;
-                invalidate();
-            }
-        });
-        valueAnimator.setDuration(700);
-        valueAnimator.setInterpolator(new AnticipateInterpolator());
-        valueAnimator.start();
+        if (alphaAnimator == null) {
+            alphaAnimator = ValueAnimator.ofInt(255, 0);
+            alphaAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+                @Override
+                public void onAnimationUpdate(ValueAnimator animation) {
+                    int animatedValue = (int) animation.getAnimatedValue();
+                    recordLockAlpha = animatedValue;
+                    invalidate();
+                }
+            });
+            alphaAnimator.setDuration(700);
+            alphaAnimator.setInterpolator(new AnticipateInterpolator());
+        }
+        alphaAnimator.start();
     }
 
     protected void reset() {
+        if (alphaAnimator != null) {
+            alphaAnimator.cancel();
+        }
         recordLockAlpha = 255;
         circleColor = defaultCircleColor;
         topLockTop = initialTopLockTop;
@@ -117,7 +124,8 @@ public class RecordLockView extends View {
     we will move its top and bottom so it goes inside the bottom lock 'R.drawable.recv_lock_bottom'
      */
     protected void animateLock(float fraction) {
-        if (bottomLockRect == null) {
+        //nothing to animate before the first layout pass
+        if (getWidth() == 0) {
             return;
         }
 
@@ -149,8 +157,10 @@ public class RecordLockView extends View {
         }
 
         //start animating lock (top and bottom) ONLY if gets above 0.2 and if it gets to 1.0
+        //the values are applied directly, onDraw picks them up on the next frame
         if (topLockFraction <= 1.0f && fraction > 0.2) {
-            startValueAnimators(newTop, newBottom);
+            topLockTop = newTop;
+            topLockBottom = newBottom;
         }
 
         invalidate();
@@ -158,75 +168,48 @@ public class RecordLockView extends View {
     }
 
 
-    private void startValueAnimators(float newTop, float newBottom) {
-        ValueAnimator topLockTopAnimator = ValueAnimator.ofFloat(newTop);
-        topLockTopAnimator.addUpdateListener(animation -> {
-            float animatedValue = (float) animation.getAnimatedValue();
-            topLockTop = animatedValue;
-        });
-        topLockTopAnimator.setDuration(0);
-
-        ValueAnimator topLockBottomAnimator = ValueAnimator.ofFloat(newBottom);
-        topLockBottomAnimator.addUpdateListener(animation -> {
-            float animatedValue = (float) animation.getAnimatedValue();
-            topLockBottom = animatedValue;
-        });
-        topLockBottomAnimator.setDuration(0);
-
-        AnimatorSet animatorSet = new AnimatorSet();
-        animatorSet.setDuration(0).setInterpolator(new DecelerateInterpolator());
-        animatorSet.playTogether(topLockTopAnimator, topLockBottomAnimator);
-        animatorSet.start();
-    }
-
-
     @Override
-    protected void onDraw(Canvas canvas) {
-        super.onDraw(canvas);
-
-
-        int cx = getWidth() / 2;
-        int cy = getHeight() / 2;
-
-        int height = getHeight();
-
-
-        Paint paint = new Paint();
-        paint.setColor(circleColor);
-        paint.setAlpha(recordLockAlpha);
-        paint.setAntiAlias(true);
-
-        canvas.drawCircle(cx, cy, getMeasuredWidth() / 2 + fourDp, paint);
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
 
+        int cx = w / 2;
+        int cy = h / 2;
 
         int drawableWidth = (int) (bottomLockDrawable.getIntrinsicWidth() / 1.5);
         int drawableHeight = (int) (bottomLockDrawable.getIntrinsicHeight() / 2.0);
 
-
-        Rect bottomLockRect = new Rect(cx - drawableWidth / 2,
+        bottomLockRect.set(cx - drawableWidth / 2,
                 (int) (cy + fiveDp - drawableHeight / 2),
                 cx + drawableWidth / 2,
-                (int) (height - fiveDp)
+                (int) (h - fiveDp)
         );
+        bottomLockDrawable.setBounds(bottomLockRect);
 
-        if (this.bottomLockRect == null) {
-            this.bottomLockRect = bottomLockRect;
-        }
+        int topLockDrawableHeight = (int) (topLockDrawable.getIntrinsicHeight() / 1.3);
 
-        bottomLockDrawable.setBounds(bottomLockRect);
+        initialTopLockTop = -twoDp;
+        initialTopLockBottom = topLockDrawableHeight;
+        topLockTop = initialTopLockTop;
+        topLockBottom = initialTopLockBottom;
+    }
 
 
-        int topLockDrawableHeight = (int) (topLockDrawable.getIntrinsicHeight() / 1.3);
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
 
 
-        if (topLockTop == 0f) {
-            topLockTop = -twoDp;
-            topLockBottom = topLockDrawableHeight;
-            initialTopLockTop = topLockTop;
-            initialTopLockBottom = topLockBottom;
-        }
+        int cx = getWidth() / 2;
+        int cy = getHeight() / 2;
+
+
+        circlePaint.setColor(circleColor);
+        circlePaint.setAlpha(recordLockAlpha);
+
+        canvas.drawCircle(cx, cy, getMeasuredWidth() / 2 + fourDp, circlePaint);
+
 
-        Rect topLockRect = new Rect(
+        topLockRect.set(
                 bottomLockRect.left,
                 (int) topLockTop,
                 bottomLockRect.right,
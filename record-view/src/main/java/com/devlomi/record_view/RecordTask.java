@@ -0,0 +1,8 @@
+package com.devlomi.record_view;
+
+/**
+ * A unit of recording work run on the {@link RecordIoExecutor}, may throw e.g. an IOException.
+ */
+public interface RecordTask {
+    void run() throws Exception;
+}
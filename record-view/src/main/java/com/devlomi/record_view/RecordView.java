@@ -1,10 +1,8 @@
 package com.devlomi.record_view;
 
 import android.content.Context;
-import android.content.res.AssetFileDescriptor;
 import android.content.res.TypedArray;
 import android.graphics.drawable.Drawable;
-import android.media.MediaPlayer;
 import android.os.Handler;
 import android.os.SystemClock;
 import android.util.AttributeSet;
@@ -20,8 +18,6 @@ import android.widget.TextView;
 import androidx.annotation.Nullable;
 import androidx.appcompat.content.res.AppCompatResources;
 
-import java.io.IOException;
-
 import io.supercharge.shimmerlayout.ShimmerLayout;
 
 /**
@@ -31,6 +27,9 @@ import io.supercharge.shimmerlayout.ShimmerLayout;
 public class RecordView extends RelativeLayout implements RecordLockViewListener {
 
     public static final int DEFAULT_CANCEL_BOUNDS = 8; //8dp
+    //an upward fling this fast locks the record once the button is half way to the lock
+    private static final int LOCK_FLING_VELOCITY = 1200; //dp per second
+    private static final float LOCK_FLING_MIN_FRACTION = 0.5f;
     private ImageView smallBlinkingMic, basketImg;
     public Chronometer counterTime;
     private TextView slideToCancel, cancelTextView;
@@ -41,13 +40,18 @@ public class RecordView extends RelativeLayout implements RecordLockViewListener
     private long startTime, elapsedTime = 0;
     private Context context;
     private OnRecordListener recordListener;
+    private OnRecordAsyncListener asyncRecordListener;
+    private final RecordIoExecutor recordExecutor = RecordIoExecutor.getInstance();
+    private RecordFuture<Void> lastRecordTask;
     private RecordPermissionHandler recordPermissionHandler;
+    private OnRecordPrewarmListener prewarmListener;
+    private boolean isPrewarmed = false;
     private boolean isSwiped, isLessThanSecondAllowed = false;
     private boolean isSoundEnabled = true;
     private int RECORD_START = R.raw.record_start;
     private int RECORD_FINISHED = R.raw.record_finished;
     private int RECORD_ERROR = R.raw.record_error;
-    private MediaPlayer player;
+    private CuePlayer cuePlayer;
     private AnimationHelper animationHelper;
     private boolean isRecordButtonGrowingAnimationEnabled = true;
     private boolean shimmerEffectEnabled = true;
@@ -66,6 +70,14 @@ public class RecordView extends RelativeLayout implements RecordLockViewListener
     private boolean fractionReached = false;
     private float currentYFraction = 0f;
     private boolean isLockInSameParent = false;
+    private final int[] recordButtonLocation = new int[2];
+    private final int[] recordLockLocation = new int[2];
+    private final GestureTracker gestureTracker = new GestureTracker(this::onGestureFrame);
+    private float lockFlingVelocity;
+    private boolean isLockFlingEnabled = false;
+    //System.nanoTime() clock, for latency metrics
+    private long touchDownNanos = 0;
+    private long actionDownNanos = 0;
 
 
     public RecordView(Context context) {
@@ -107,6 +119,11 @@ public class RecordView extends RelativeLayout implements RecordLockViewListener
 
         hideViews(true);
 
+        lockFlingVelocity = DpUtil.toPixel(LOCK_FLING_VELOCITY, context);
+
+        cuePlayer = CuePlayer.getInstance(context);
+        preloadSounds();
+
 
         if (attrs != null && defStyleAttr == 0 && defStyleRes == 0) {
             TypedArray typedArray = context.obtainStyledAttributes(attrs, R.styleable.RecordView,
@@ -184,6 +201,7 @@ public class RecordView extends RelativeLayout implements RecordLockViewListener
     }
 
     private void cancelAndDeleteRecord() {
+        gestureTracker.stop();
         if (isTimeLimitValid()) {
             removeTimeLimitCallbacks();
         }
@@ -193,9 +211,7 @@ public class RecordView extends RelativeLayout implements RecordLockViewListener
 
         animationHelper.setStartRecorded(false);
 
-        if (recordListener != null) {
-            recordListener.onCancel();
-        }
+        dispatchCancel();
 
         resetRecord(recordButton);
     }
@@ -210,8 +226,8 @@ public class RecordView extends RelativeLayout implements RecordLockViewListener
             @Override
             public void run() {
 
-                if (recordListener != null && !isSwiped)
-                    recordListener.onFinish(elapsedTime, true);
+                if (!isSwiped)
+                    dispatchFinish(elapsedTime, true);
 
                 removeTimeLimitCallbacks();
 
@@ -261,46 +277,33 @@ public class RecordView extends RelativeLayout implements RecordLockViewListener
 
 
     private void playSound(int soundRes) {
-
         if (isSoundEnabled) {
-            if (soundRes == 0)
-                return;
-
-            try {
-                player = new MediaPlayer();
-                AssetFileDescriptor afd = context.getResources().openRawResourceFd(soundRes);
-                if (afd == null) return;
-                player.setDataSource(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
-                afd.close();
-                player.prepare();
-                player.start();
-                player.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
-
-                    @Override
-                    public void onCompletion(MediaPlayer mp) {
-                        mp.release();
-                    }
-
-                });
-                player.setLooping(false);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            cuePlayer.play(soundRes);
         }
+    }
 
-
+    //decode the cues up front so playing them on ACTION_DOWN costs nothing
+    private void preloadSounds() {
+        if (isSoundEnabled) {
+            cuePlayer.preload(RECORD_START);
+            cuePlayer.preload(RECORD_FINISHED);
+            cuePlayer.preload(RECORD_ERROR);
+        }
     }
 
 
     protected void onActionDown(RecordButton recordBtn, MotionEvent motionEvent) {
 
+        //event times are uptimeMillis, which runs on the same monotonic clock as System.nanoTime()
+        touchDownNanos = motionEvent.getEventTime() * 1_000_000L;
+        actionDownNanos = System.nanoTime();
+
         if (!isRecordPermissionGranted()) {
             return;
         }
 
 
-        if (recordListener != null)
-            recordListener.onStart();
+        dispatchStart();
 
         if (isTimeLimitValid()) {
             removeTimeLimitCallbacks();
@@ -323,14 +326,12 @@ public class RecordView extends RelativeLayout implements RecordLockViewListener
         initialRecordButtonX = recordBtn.getX();
 
 
-        int[] recordButtonLocation = new int[2];
         recordBtn.getLocationInWindow(recordButtonLocation);
 
         initialRecordButtonY = recordButton.getY();
 
         if (isLockEnabled && recordLockView != null) {
             isLockInSameParent = isLockAndRecordButtonHaveSameParent();
-            int[] recordLockLocation = new int[2];
             recordLockView.getLocationInWindow(recordLockLocation);
             recordLockXInWindow = recordLockLocation[0];
             recordLockYInWindow = isLockInSameParent ? recordLockView.getY() : recordLockLocation[1];
@@ -351,6 +352,7 @@ public class RecordView extends RelativeLayout implements RecordLockViewListener
         isSwiped = false;
         currentYFraction = 0f;
 
+        gestureTracker.start(motionEvent);
     }
 
 
@@ -360,6 +362,19 @@ public class RecordView extends RelativeLayout implements RecordLockViewListener
             return;
         }
 
+        //positions are applied and thresholds checked once per frame in onGestureFrame
+        gestureTracker.addMovement(motionEvent);
+    }
+
+    //called by the gesture tracker once per frame, package-private so DragAllocationTest can drive it
+    void onGestureFrame(float rawX, float rawY, float velocityX, float velocityY) {
+
+        if (!canRecord || fractionReached || recordButton == null) {
+            return;
+        }
+
+        RecordButton recordBtn = recordButton;
+
         long time = System.currentTimeMillis() - startTime;
 
         if (!isSwiped) {
@@ -392,8 +407,7 @@ public class RecordView extends RelativeLayout implements RecordLockViewListener
 
                 animationHelper.setStartRecorded(false);
 
-                if (recordListener != null)
-                    recordListener.onCancel();
+                dispatchCancel();
 
                 if (isTimeLimitValid()) {
                     removeTimeLimitCallbacks();
@@ -403,21 +417,17 @@ public class RecordView extends RelativeLayout implements RecordLockViewListener
             } else {
 
 
-                if (canMoveX(motionEvent)) {
-                    recordBtn.animate()
-                            .x(motionEvent.getRawX())
-                            .setDuration(0)
-                            .start();
+                //properties are set directly instead of through zero duration animators,
+                //they only touch the RenderNode and are drawn together on the next frame
+                if (canMoveX(rawX)) {
+                    recordBtn.setX(rawX);
 
 
                     if (difX == 0)
                         difX = (initialRecordButtonX - slideToCancelLayout.getX());
 
 
-                    slideToCancelLayout.animate()
-                            .x(motionEvent.getRawX() - difX)
-                            .setDuration(0)
-                            .start();
+                    slideToCancelLayout.setX(rawX - difX);
 
 
                 }
@@ -426,18 +436,15 @@ public class RecordView extends RelativeLayout implements RecordLockViewListener
                   if RecordLock was NOT inside the same parent as RecordButton
                    animate.y() OR view.setY() will setY value INSIDE its parent
                    we need a way to convert the inner value to outer value
-                   since motionEvent.getRawY() returns Y's location onScreen
+                   since rawY is Y's location onScreen
                    we had to get screen height and get the difference between motionEvent and screen height
                  */
-                float newY = isLockInSameParent ? motionEvent.getRawY() : motionEvent.getRawY() - recordButtonYInWindow;
-                if (canMoveY(motionEvent, newY)) {
+                float newY = isLockInSameParent ? rawY : rawY - recordButtonYInWindow;
+                if (canMoveY(rawX, rawY, newY)) {
 
-                    recordBtn.animate()
-                            .y(newY)
-                            .setDuration(0)
-                            .start();
+                    recordBtn.setY(newY);
 
-                    float currentY = motionEvent.getRawY();
+                    float currentY = rawY;
                     float minY = recordLockYInWindow;
                     float maxY = recordButtonYInWindow;
 
@@ -451,7 +458,14 @@ public class RecordView extends RelativeLayout implements RecordLockViewListener
                         //convert fraction to scale
                         //so instead of starting from 0 to 1, it will start from 1 to 0
                         float scale = 1 - fraction + 1;
-                        recordBtn.animate().scaleX(scale).scaleY(scale).setDuration(0).start();
+                        recordBtn.setScaleX(scale);
+                        recordBtn.setScaleY(scale);
+                    }
+
+                    //velocity is negative while moving up
+                    if (isLockFlingEnabled && !fractionReached
+                            && fraction >= LOCK_FLING_MIN_FRACTION && -velocityY >= lockFlingVelocity) {
+                        recordLockView.animateLock(1f);
                     }
                 }
             }
@@ -460,9 +474,9 @@ public class RecordView extends RelativeLayout implements RecordLockViewListener
     }
 
 
-    private boolean canMoveX(MotionEvent motionEvent) {
+    private boolean canMoveX(float rawX) {
         //Prevent Swiping out of bounds
-        if (motionEvent.getRawX() < initialRecordButtonX) {
+        if (rawX < initialRecordButtonX) {
             if (isLockEnabled) {
                 //prevent swiping X if record button goes up
                 return currentYFraction <= 0.3;
@@ -473,7 +487,7 @@ public class RecordView extends RelativeLayout implements RecordLockViewListener
         return false;
     }
 
-    private boolean canMoveY(MotionEvent motionEvent, float dif) {
+    private boolean canMoveY(float rawX, float rawY, float dif) {
 
         if (isLockEnabled) {
             /*
@@ -481,9 +495,9 @@ public class RecordView extends RelativeLayout implements RecordLockViewListener
              2. prevent swiping up if record button is NOT near record Lock's X
              */
             if(isLockInSameParent){
-                return motionEvent.getRawY() < initialRecordButtonY && motionEvent.getRawX() >= recordLockXInWindow;
+                return rawY < initialRecordButtonY && rawX >= recordLockXInWindow;
             }else {
-                return dif <= initialRecordButtonY && motionEvent.getRawX() >= recordLockXInWindow;
+                return dif <= initialRecordButtonY && rawX >= recordLockXInWindow;
             }
         }
 
@@ -493,6 +507,10 @@ public class RecordView extends RelativeLayout implements RecordLockViewListener
 
     protected void onActionUp(RecordButton recordBtn) {
 
+        //the last move may not have had its frame yet, it can still cancel or lock
+        gestureTracker.flush();
+        gestureTracker.stop();
+
         if (!canRecord || fractionReached) {
             return;
         }
@@ -505,8 +523,7 @@ public class RecordView extends RelativeLayout implements RecordLockViewListener
         elapsedTime = System.currentTimeMillis() - startTime;
 
         if (!isLessThanSecondAllowed && isLessThanOneSecond(elapsedTime) && !isSwiped) {
-            if (recordListener != null)
-                recordListener.onLessThanSecond();
+            dispatchLessThanSecond();
 
             removeTimeLimitCallbacks();
             animationHelper.setStartRecorded(false);
@@ -515,8 +532,8 @@ public class RecordView extends RelativeLayout implements RecordLockViewListener
 
 
         } else {
-            if (recordListener != null && !isSwiped)
-                recordListener.onFinish(elapsedTime, false);
+            if (!isSwiped)
+                dispatchFinish(elapsedTime, false);
 
             removeTimeLimitCallbacks();
 
@@ -565,6 +582,7 @@ public class RecordView extends RelativeLayout implements RecordLockViewListener
     }
 
     private void resetRecord(RecordButton recordBtn) {
+        gestureTracker.stop();
         //if user has swiped then do not hide SmallMic since it will be hidden after swipe Animation
         hideViews(!isSwiped);
         fractionReached = false;
@@ -631,16 +649,97 @@ public class RecordView extends RelativeLayout implements RecordLockViewListener
         this.recordListener = recrodListener;
     }
 
+    // Heavy work of the record lifecycle, called on the RecordIoExecutor before the OnRecordListener
+    public void setOnRecordAsyncListener(OnRecordAsyncListener asyncRecordListener) {
+        this.asyncRecordListener = asyncRecordListener;
+    }
+
+    // Future of the async callback of the latest event, null without an OnRecordAsyncListener.
+    // Inside an OnRecordListener callback it belongs to the same event
+    public RecordFuture<Void> getLastRecordTask() {
+        return lastRecordTask;
+    }
+
+    //the async task is queued first, so the UI listener already sees its future
+    private void dispatchStart() {
+        if (asyncRecordListener != null) {
+            lastRecordTask = recordExecutor.execute(asyncRecordListener::onStart);
+        }
+        if (recordListener != null) {
+            recordListener.onStart();
+        }
+    }
+
+    private void dispatchCancel() {
+        if (asyncRecordListener != null) {
+            lastRecordTask = recordExecutor.execute(asyncRecordListener::onCancel);
+        }
+        if (recordListener != null) {
+            recordListener.onCancel();
+        }
+    }
+
+    private void dispatchFinish(long recordTime, boolean limitReached) {
+        if (asyncRecordListener != null) {
+            OnRecordAsyncListener listener = asyncRecordListener;
+            lastRecordTask = recordExecutor.execute(() -> listener.onFinish(recordTime, limitReached));
+        }
+        if (recordListener != null) {
+            recordListener.onFinish(recordTime, limitReached);
+        }
+    }
+
+    private void dispatchLessThanSecond() {
+        if (asyncRecordListener != null) {
+            lastRecordTask = recordExecutor.execute(asyncRecordListener::onLessThanSecond);
+        }
+        if (recordListener != null) {
+            recordListener.onLessThanSecond();
+        }
+    }
+
     public void setRecordPermissionHandler(RecordPermissionHandler recordPermissionHandler) {
         this.recordPermissionHandler = recordPermissionHandler;
     }
 
+    // When the finger touched the record button for the last recording, in System.nanoTime() units
+    public long getLastTouchDownNanos() {
+        return touchDownNanos;
+    }
+
+    // When the last touch reached RecordView, the difference to the touch is input dispatch latency
+    public long getLastActionDownNanos() {
+        return actionDownNanos;
+    }
+
+    public void setOnRecordPrewarmListener(OnRecordPrewarmListener prewarmListener) {
+        this.prewarmListener = prewarmListener;
+        isPrewarmed = false;
+        if (recordButton != null) {
+            onRecordButtonShownChanged(recordButton.isShownInWindow());
+        }
+    }
+
+    protected void onRecordButtonShownChanged(boolean isShown) {
+        if (prewarmListener == null || isShown == isPrewarmed) {
+            return;
+        }
+
+        isPrewarmed = isShown;
+        if (isShown) {
+            prewarmListener.onPrewarm();
+        } else {
+            prewarmListener.onCooldown();
+        }
+    }
+
     public void setOnBasketAnimationEndListener(OnBasketAnimationEnd onBasketAnimationEndListener) {
         animationHelper.setOnBasketAnimationEndListener(onBasketAnimationEndListener);
     }
 
     public void setSoundEnabled(boolean isEnabled) {
         isSoundEnabled = isEnabled;
+        preloadSounds();
     }
 
     public void setLessThanSecondAllowed(boolean isAllowed) {
@@ -673,6 +772,7 @@ public class RecordView extends RelativeLayout implements RecordLockViewListener
         RECORD_START = startSound;
         RECORD_FINISHED = finishedSound;
         RECORD_ERROR = errorSound;
+        preloadSounds();
     }
 
     public float getCancelBounds() {
@@ -742,11 +842,17 @@ public class RecordView extends RelativeLayout implements RecordLockViewListener
         isLockEnabled = lockEnabled;
     }
 
+    // Lets a fast upward fling lock the record before the button reaches the lock, off by default
+    public void setLockFlingEnabled(boolean lockFlingEnabled) {
+        isLockFlingEnabled = lockFlingEnabled;
+    }
+
     protected void setRecordButton(RecordButton recordButton) {
         this.recordButton = recordButton;
         this.recordButton.setSendClickListener(v -> {
             finishAndSaveRecord();
         });
+        onRecordButtonShownChanged(recordButton.isShownInWindow());
     }
 
     /*